@@ -0,0 +1,101 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the values with the lowest cost out of all values offered, up to a fixed capacity.
+ * The values are held in a binary heap with the worst kept value on top, so selecting the best
+ * k of n values is O(n log k), and offering a value never allocates. Of values with the same
+ * cost, the one offered first is considered best.
+ */
+public class BestMatches<T> {
+
+    private final Object[] values;
+    private final int[] costs;
+    private final int[] sequence;
+    private int size;
+    private int offerCount;
+
+    public BestMatches(int capacity) {
+        values = new Object[capacity];
+        costs = new int[capacity];
+        sequence = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(T value, int cost) {
+        int order = offerCount++;
+        if (size < values.length) {
+            set(size, value, cost, order);
+            siftUp(size++);
+        } else if (size > 0 && cost < costs[0]) {
+            set(0, value, cost, order);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return the kept values, from best to worst. Empties the heap.
+     */
+    public T[] toSortedArray(T[] result) {
+        result = Arrays.copyOf(result, size);
+        while (size > 0) {
+            @SuppressWarnings("unchecked")
+            T worst = (T) values[0];
+            result[--size] = worst;
+            set(0, values[size], costs[size], sequence[size]);
+            values[size] = null;
+            siftDown(0);
+        }
+        return result;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isWorse(index, parent)) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1, right = left + 1;
+            if (left < size && isWorse(left, worst)) {
+                worst = left;
+            }
+            if (right < size && isWorse(right, worst)) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(index, worst);
+            index = worst;
+        }
+    }
+
+    private boolean isWorse(int a, int b) {
+        return costs[a] > costs[b] || (costs[a] == costs[b] && sequence[a] > sequence[b]);
+    }
+
+    private void set(int index, Object value, int cost, int order) {
+        values[index] = value;
+        costs[index] = cost;
+        sequence[index] = order;
+    }
+
+    private void swap(int a, int b) {
+        Object value = values[a];
+        int cost = costs[a], order = sequence[a];
+        set(a, values[b], costs[b], sequence[b]);
+        set(b, value, cost, order);
+    }
+}
@@ -1,14 +1,20 @@
 package com.johannesbrodwall.recyclerviewdemo;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,7 +42,13 @@ public class CategorizedListAdapter extends RecyclerView.Adapter<CategorizedList
 
     private static final int ROW_CATEGORY = 123;
     private static final int ROW_ITEM = 413;
+    private static final int MAX_CACHED_TEXT_LAYOUTS = 500;
+    private static final int PREFETCHED_ROWS = 10;
     private final DemoCategorizedListModel model;
+    private final TextPaint itemTextPaint;
+    private final TextLayoutCache<Layout> itemTextLayouts;
+    private int itemTextWidth;
+    private DemoItem selectionAnchor;
 
     private LayoutInflater inflater;
 
@@ -44,6 +56,48 @@ public class CategorizedListAdapter extends RecyclerView.Adapter<CategorizedList
         this.model = model;
         model.setItemChangeListener(this);
         inflater = LayoutInflater.from(context);
+        itemTextPaint = createTextPaint(context);
+        itemTextLayouts = new TextLayoutCache<>(createTextMeasurer(itemTextPaint), MAX_CACHED_TEXT_LAYOUTS);
+    }
+
+    private static TextPaint createTextPaint(Context context) {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.density = context.getResources().getDisplayMetrics().density;
+        paint.setTextSize(context.getResources().getDimension(R.dimen.item_text_size));
+        TypedArray attributes = context.obtainStyledAttributes(new int[] { android.R.attr.textColorPrimary });
+        paint.setColor(attributes.getColor(0, Color.BLACK));
+        attributes.recycle();
+        return paint;
+    }
+
+    private static TextLayoutCache.TextMeasurer<Layout> createTextMeasurer(final TextPaint paint) {
+        return new TextLayoutCache.TextMeasurer<Layout>() {
+            @Override
+            public Layout measure(String text, int width) {
+                // Paint is not thread safe, and the layouts are made both on the main and the background thread
+                return new StaticLayout(text, new TextPaint(paint), width, Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+            }
+        };
+    }
+
+    public void shutdown() {
+        itemTextLayouts.shutdown();
+    }
+
+    /**
+     * Lays out the names of the items in the rows which are about to scroll into view
+     */
+    private void prefetchItemTexts(int position, int direction) {
+        if (itemTextWidth == 0) {
+            return;
+        }
+        for (int i = 0; i < PREFETCHED_ROWS && position >= 0 && position < model.getRowCount(); i++) {
+            Object row = model.getRow(position);
+            if (row instanceof DemoItem) {
+                itemTextLayouts.prefetch(((DemoItem) row).getName(), itemTextWidth);
+            }
+            position += direction;
+        }
     }
 
     @Override
@@ -115,6 +169,21 @@ public class CategorizedListAdapter extends RecyclerView.Adapter<CategorizedList
 
         };
         new ItemTouchHelper(listItemTouchListener).attachToRecyclerView(recyclerView);
+
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+                    return;
+                }
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0) {
+                    prefetchItemTexts(layoutManager.findLastVisibleItemPosition() + 1, 1);
+                } else if (dy < 0) {
+                    prefetchItemTexts(layoutManager.findFirstVisibleItemPosition() - 1, -1);
+                }
+            }
+        });
     }
 
     @Override
@@ -158,27 +227,35 @@ public class CategorizedListAdapter extends RecyclerView.Adapter<CategorizedList
     }
 
 
-    class DemoCategoryViewHolder extends DemoViewHolder implements View.OnClickListener {
+    class DemoCategoryViewHolder extends DemoViewHolder implements View.OnClickListener, View.OnLongClickListener {
 
         private final TextView categoryText;
+        private final TextView categoryAggregateText;
         private final Drawable drawableCollapse;
         private DemoCategory category;
         private final ImageView categoryToggleImage;
         private final Drawable drawableExpand;
+        private final int depthIndent;
 
         public DemoCategoryViewHolder(View parent) {
             super(parent);
+            depthIndent = (int) parent.getContext().getResources().getDimension(R.dimen.category_depth_indent);
             categoryText = (TextView) parent.findViewById(R.id.categoryText);
+            categoryAggregateText = (TextView) parent.findViewById(R.id.categoryAggregateText);
             categoryToggleImage = (ImageView) parent.findViewById(R.id.categoryToggleImage);
             drawableExpand = parent.getContext().getDrawable(R.drawable.ic_vertical_align_bottom_24dp);
             drawableCollapse = parent.getContext().getDrawable(R.drawable.ic_file_upload_24dp);
             parent.setOnClickListener(this);
+            parent.setOnLongClickListener(this);
         }
 
         @Override
         public void onBindViewHolder(Object row) {
             category = (DemoCategory)row;
+            itemView.setPaddingRelative(model.getDepth(category) * depthIndent, 0, 0, 0);
             categoryText.setText(category.getName());
+            categoryAggregateText.setText(String.format("%d of %d items, total %,d kr",
+                    model.getVisibleItemCount(category), model.getItemCount(category), model.getVisiblePrice(category)));
             categoryToggleImage.setImageDrawable(model.isExpanded(category) ? drawableCollapse : drawableExpand);
 
         }
@@ -188,30 +265,68 @@ public class CategorizedListAdapter extends RecyclerView.Adapter<CategorizedList
             model.toggleCollapsed(category);
             onItemClick(category);
         }
+
+        @Override
+        public boolean onLongClick(View v) {
+            model.selectAll(category);
+            return true;
+        }
     }
 
-    class DemoItemViewHolder extends DemoViewHolder implements View.OnClickListener {
-        private final TextView itemText;
+    class DemoItemViewHolder extends DemoViewHolder implements View.OnClickListener, View.OnLongClickListener {
+        private final PrecomputedTextView itemText;
         private final TextView itemPriceText;
+        private final int selectedColor;
         private DemoItem item;
 
         public DemoItemViewHolder(View parent) {
             super(parent);
-            itemText = (TextView) parent.findViewById(R.id.itemText);
+            itemText = (PrecomputedTextView) parent.findViewById(R.id.itemText);
+            itemText.setLayouts(itemTextLayouts, itemTextPaint);
             itemPriceText = (TextView)parent.findViewById(R.id.itemPriceText);
+            selectedColor = ContextCompat.getColor(parent.getContext(), R.color.selectedRow);
             parent.setOnClickListener(this);
+            parent.setOnLongClickListener(this);
         }
 
         @Override
         public void onBindViewHolder(Object row) {
             item = (DemoItem)row;
             itemText.setText(item.getName());
-            itemPriceText.setText("11 kr");
+            if (itemText.getTextWidth() > 0) {
+                itemTextWidth = itemText.getTextWidth();
+            }
+            itemPriceText.setText(item.getPrice() + " kr");
+            itemView.setBackgroundColor(model.isSelected(item) ? selectedColor : Color.TRANSPARENT);
         }
 
         @Override
         public void onClick(View v) {
-            onItemClick(item);
+            if (model.getSelectedCount() > 0) {
+                model.toggleSelected(item);
+            } else {
+                onItemClick(item);
+            }
+        }
+
+        /**
+         * Selects the item, or every row from the previously long clicked item if that is still selected
+         */
+        @Override
+        public boolean onLongClick(View v) {
+            int position = getAdapterPosition();
+            if (position == -1) {
+                // The row is being removed
+                return false;
+            }
+            int anchorPosition = selectionAnchor != null && model.isSelected(selectionAnchor) ? model.indexOf(selectionAnchor) : -1;
+            if (anchorPosition != -1) {
+                model.selectRange(anchorPosition, position);
+            } else {
+                model.setSelected(item, true);
+            }
+            selectionAnchor = item;
+            return true;
         }
     }
 }
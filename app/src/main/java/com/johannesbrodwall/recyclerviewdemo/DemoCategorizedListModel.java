@@ -1,39 +1,148 @@
 package com.johannesbrodwall.recyclerviewdemo;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.RecursiveAction;
 
 public class DemoCategorizedListModel {
 
+    private static final Comparator<CategoryNode> CATEGORY_ORDER = new Comparator<CategoryNode>() {
+        @Override
+        public int compare(CategoryNode lhs, CategoryNode rhs) {
+            return lhs.category.compareTo(rhs.category);
+        }
+    };
+
+    public enum SortOrder {
+        NAME(new Comparator<DemoItem>() {
+            @Override
+            public int compare(DemoItem lhs, DemoItem rhs) {
+                return lhs.compareTo(rhs);
+            }
+        }),
+        PRICE(new Comparator<DemoItem>() {
+            @Override
+            public int compare(DemoItem lhs, DemoItem rhs) {
+                int result = Integer.compare(lhs.getPrice(), rhs.getPrice());
+                return result != 0 ? result : lhs.compareTo(rhs);
+            }
+        }),
+        RECENTLY_UPDATED(new Comparator<DemoItem>() {
+            @Override
+            public int compare(DemoItem lhs, DemoItem rhs) {
+                int result = Long.compare(rhs.getUpdatedAt(), lhs.getUpdatedAt());
+                return result != 0 ? result : lhs.compareTo(rhs);
+            }
+        });
+
+        private final Comparator<ItemEntry> entryOrder;
+
+        SortOrder(final Comparator<DemoItem> itemOrder) {
+            this.entryOrder = new Comparator<ItemEntry>() {
+                @Override
+                public int compare(ItemEntry lhs, ItemEntry rhs) {
+                    return itemOrder.compare(lhs.item, rhs.item);
+                }
+            };
+        }
+    }
+
+    private static final SortOrder[] SORT_ORDERS = SortOrder.values();
+
+    public enum SearchMode {
+        SUBSTRING, FUZZY
+    }
+
+    static final int MAX_RANKED_RESULTS = 100;
+
+    private static final IndexedTree.Weigher<ItemEntry> ENTRY_WEIGHT = new IndexedTree.Weigher<ItemEntry>() {
+        @Override
+        public int getWeight(ItemEntry entry) {
+            return entry.getWeight();
+        }
+    };
+
+    private final Comparator<ItemEntry> rankOrder = new Comparator<ItemEntry>() {
+        @Override
+        public int compare(ItemEntry lhs, ItemEntry rhs) {
+            int result = Integer.compare(lhs.rankCost, rhs.rankCost);
+            return result != 0 ? result : sortOrder.entryOrder.compare(lhs, rhs);
+        }
+    };
+
+    private final IndexedTree.Weigher<ItemEntry> filteredWeight = new IndexedTree.Weigher<ItemEntry>() {
+        @Override
+        public int getWeight(ItemEntry entry) {
+            entry.visible = matchesFilter(entry);
+            return entry.getWeight();
+        }
+    };
+
     private ItemChangeListener itemChangeListener = new NullItemChangeListener();
 
-    private final List<DemoItem> items = new ArrayList<>();
-    private final List<DemoCategory> categories = new ArrayList<>();
-    private final Map<UUID, List<DemoItem>> itemsPerCategory = new HashMap<>();
+    private final CategoryNode root = new CategoryNode(null, -1);
+    private final Map<UUID, CategoryNode> categoryNodes = new HashMap<>();
+    private final Map<UUID, ItemEntry> itemEntries = new HashMap<>();
+    private final List<ItemEntry> entriesByOrdinal = new ArrayList<>();
+    private final BitSet selection = new BitSet();
+    private final IndexedTree<ItemEntry>[] flatIndexes = createItemIndexes();
 
     private boolean isGroupedByCategory = true;
-    private final Map<UUID, Boolean> isExpanded = new HashMap<>();
+    private SortOrder sortOrder = SortOrder.NAME;
 
-    private List<Object> displayedRows = new ArrayList<>();
+    private final List<Object> displayedRows = new DisplayedRows();
     private String filter;
+    private SearchMode searchMode = SearchMode.SUBSTRING;
+    private ItemEntry[] rankedEntries;
+    private boolean rankingTruncated;
+    private int modificationCount;
 
     public DemoCategorizedListModel(List<DemoCategory> categories, List<DemoItem> items) {
-        this.categories.addAll(categories);
-        this.items.addAll(items);
+        for (int i = 0; i < categories.size(); i++) {
+            DemoCategory category = categories.get(i);
+            categoryNodes.put(category.getId(), new CategoryNode(category, i));
+        }
+        for (CategoryNode node : categoryNodes.values()) {
+            node.parent = getParentNode(node.category);
+            node.handle = node.parent.subcategories.insert(node, 0);
+        }
+        ItemEntry[] entries = new ItemEntry[items.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = createEntry(items.get(i));
+        }
 
-        for (DemoCategory category : categories) {
-            isExpanded.put(category.getId(), true);
-            itemsPerCategory.put(category.getId(), new ArrayList<DemoItem>());
+        ForkJoinSupport.invoke(new BuildTask(entries), entries.length);
+        recalculateAggregates(root);
+    }
+
+    private CategoryNode getParentNode(DemoCategory category) {
+        if (category.getParentId() == null) {
+            return root;
         }
-        for (DemoItem item : items) {
-            itemsPerCategory.get(item.getCategoryId()).add(item);
+        CategoryNode parent = categoryNodes.get(category.getParentId());
+        if (parent == null) {
+            throw new IllegalArgumentException("Unknown parent category for " + category);
         }
+        return parent;
+    }
 
-        displayWithCategories();
+    private CategoryNode getCategoryNode(UUID categoryId) {
+        CategoryNode node = categoryNodes.get(categoryId);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown category " + categoryId);
+        }
+        return node;
     }
 
     public void toggleCategories() {
@@ -42,128 +151,565 @@ public class DemoCategorizedListModel {
 
     public void toggleCategories(boolean isGroupedByCategory) {
         this.isGroupedByCategory = isGroupedByCategory;
+        itemChangeListener.notifyDataSetChanged();
+    }
+
+    public boolean isGroupedByCategory() {
+        return isGroupedByCategory;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the collapsed categories, indexed by their position in the most recent category list:
+     * the list the model was created with, or the one given to {@link #replaceAll(List, List)} since
+     */
+    public BitSet getCollapsedCategories() {
+        BitSet result = new BitSet();
+        for (CategoryNode node : categoryNodes.values()) {
+            if (!node.expanded) {
+                result.set(node.ordinal);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param collapsedCategories the collapsed categories, indexed by their position in the most recent
+     *                            category list, as returned by {@link #getCollapsedCategories()}. The
+     *                            model must hold the same category list as when they were saved.
+     */
+    public void restoreState(BitSet collapsedCategories, String filter, boolean isGroupedByCategory, SortOrder sortOrder) {
+        for (CategoryNode node : categoryNodes.values()) {
+            node.expanded = !collapsedCategories.get(node.ordinal);
+        }
+        this.filter = filter;
+        this.isGroupedByCategory = isGroupedByCategory;
+        this.sortOrder = sortOrder;
         redisplay();
     }
 
-    private void redisplay() {
-        if (isGroupedByCategory) {
-            displayWithCategories();
-        } else {
-            displayOnlyChildren();
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Switches to the index which is kept for every sort order, so the only work is to bring
+     * the row weights of that index up to date. A fuzzy ranking is redone, as the sort order
+     * breaks ties.
+     */
+    public void setSortOrder(SortOrder sortOrder) {
+        if (this.sortOrder == sortOrder) {
+            return;
         }
+        this.sortOrder = sortOrder;
+        if (rankedEntries != null) {
+            redisplay();
+            return;
+        }
+        ForkJoinSupport.invoke(new ReweighTask(ENTRY_WEIGHT), itemEntries.size());
         itemChangeListener.notifyDataSetChanged();
     }
 
-    private void displayWithCategories() {
-        displayedRows.clear();
-        Collections.sort(categories);
+    private void redisplay() {
+        rankEntries();
+        refresh();
+    }
 
-        for (DemoCategory category : categories) {
-            List<DemoItem> items = new ArrayList<>();
-            for (DemoItem item : itemsPerCategory.get(category.getId())) {
-                if (matchesFilter(item)) {
-                    items.add(item);
-                }
+    private void refresh() {
+        ForkJoinSupport.invoke(new ReweighTask(filteredWeight), itemEntries.size());
+        recalculateAggregates(root);
+        itemChangeListener.notifyDataSetChanged();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IndexedTree<ItemEntry>[] createItemIndexes() {
+        IndexedTree<ItemEntry>[] result = new IndexedTree[SORT_ORDERS.length];
+        for (SortOrder sortOrder : SORT_ORDERS) {
+            result[sortOrder.ordinal()] = new IndexedTree<>(sortOrder.entryOrder);
+        }
+        return result;
+    }
+
+    private IndexedTree<ItemEntry> flatItems() {
+        return flatIndexes[sortOrder.ordinal()];
+    }
+
+    /**
+     * Sums up the subtree aggregates from the direct item prices, which must already be calculated
+     */
+    private void recalculateAggregates(CategoryNode node) {
+        node.itemCount = node.items().size();
+        node.visibleItemCount = node.items().getTotalWeight();
+        node.totalPrice = node.directTotalPrice;
+        node.visiblePrice = node.directVisiblePrice;
+        for (CategoryNode child : node.subcategories) {
+            recalculateAggregates(child);
+            node.itemCount += child.itemCount;
+            node.visibleItemCount += child.visibleItemCount;
+            node.totalPrice += child.totalPrice;
+            node.visiblePrice += child.visiblePrice;
+        }
+        if (node.parent != null) {
+            node.parent.subcategories.setWeight(node.handle, node.getRowCount());
+        }
+    }
+
+    private void updateAggregates(ItemEntry entry, int itemDelta, int visibleItemDelta, long priceDelta, long visiblePriceDelta) {
+        entry.category.directTotalPrice += priceDelta;
+        entry.category.directVisiblePrice += visiblePriceDelta;
+        updateAggregates(entry.category, itemDelta, visibleItemDelta, priceDelta, visiblePriceDelta);
+    }
+
+    private void updateAggregates(CategoryNode node, int itemDelta, int visibleItemDelta, long priceDelta, long visiblePriceDelta) {
+        for (CategoryNode current = node; current != null; current = current.parent) {
+            current.itemCount += itemDelta;
+            current.visibleItemCount += visibleItemDelta;
+            current.totalPrice += priceDelta;
+            current.visiblePrice += visiblePriceDelta;
+            if (current.parent != null) {
+                current.parent.subcategories.setWeight(current.handle, current.getRowCount());
             }
-            if (!items.isEmpty()) {
-                if (isExpanded.get(category.getId())) {
-                    Collections.sort(items);
-                    displayedRows.add(category);
-                    displayedRows.addAll(items);
-                } else {
-                    displayedRows.add(category);
-                }
+        }
+    }
+
+    public int getItemCount(DemoCategory category) {
+        return getCategoryNode(category.getId()).itemCount;
+    }
+
+    public int getVisibleItemCount(DemoCategory category) {
+        return getCategoryNode(category.getId()).visibleItemCount;
+    }
+
+    public long getTotalPrice(DemoCategory category) {
+        return getCategoryNode(category.getId()).totalPrice;
+    }
+
+    public long getVisiblePrice(DemoCategory category) {
+        return getCategoryNode(category.getId()).visiblePrice;
+    }
+
+    private boolean matchesFilter(ItemEntry entry) {
+        if (filter == null) {
+            return true;
+        } else if (searchMode == SearchMode.FUZZY) {
+            return entry.rank != -1;
+        }
+        return entry.item.getName().contains(filter);
+    }
+
+    public SearchMode getSearchMode() {
+        return searchMode;
+    }
+
+    /**
+     * In fuzzy mode, only the items which best match the filter are shown, allowing for typos.
+     * Without categories, the items are shown ranked by how well they match.
+     */
+    public void setSearchMode(SearchMode searchMode) {
+        if (this.searchMode == searchMode) {
+            return;
+        }
+        this.searchMode = searchMode;
+        if (filter != null) {
+            redisplay();
+        }
+    }
+
+    /**
+     * Scores every item against a fuzzy filter in the current sort order, so that it breaks ties,
+     * and keeps the best entries without sorting the rest
+     */
+    private void rankEntries() {
+        clearRanks();
+        if (filter == null || searchMode != SearchMode.FUZZY) {
+            return;
+        }
+
+        FuzzyMatcher matcher = new FuzzyMatcher(filter);
+        BestMatches<ItemEntry> bestMatches = new BestMatches<>(MAX_RANKED_RESULTS);
+        int matchCount = 0;
+        for (ItemEntry entry : flatItems()) {
+            int cost = matcher.cost(entry.item.getName());
+            if (cost != FuzzyMatcher.NO_MATCH) {
+                bestMatches.offer(entry, cost);
+                matchCount++;
             }
         }
+        rankedEntries = bestMatches.toSortedArray(new ItemEntry[0]);
+        rankingTruncated = matchCount > rankedEntries.length;
+        scoreRankedEntries(matcher);
     }
 
-    private boolean matchesFilter(DemoItem item) {
-        return filter == null || item.getName().contains(filter);
+    /**
+     * Numbers the ranked entries and keeps their cost, so that an updated entry can be
+     * placed among them without scoring them again
+     */
+    private void scoreRankedEntries(FuzzyMatcher matcher) {
+        for (int i = 0; i < rankedEntries.length; i++) {
+            rankedEntries[i].rank = i;
+            rankedEntries[i].rankCost = matcher.cost(rankedEntries[i].item.getName());
+        }
     }
 
-    private void displayOnlyChildren() {
-        displayedRows.clear();
+    private void clearRanks() {
+        if (rankedEntries != null) {
+            for (ItemEntry entry : rankedEntries) {
+                entry.rank = -1;
+            }
+            rankedEntries = null;
+        }
+        rankingTruncated = false;
+    }
 
-        Collections.sort(items);
-        for (DemoItem item : items) {
-            if (matchesFilter(item)) {
-                displayedRows.add(item);
+    /**
+     * Scores only the updated entry against the fuzzy filter, and finds its new place in the
+     * ranking by its cost and the sort order. When it enters a full ranking, the last entry
+     * drops out. The entries which are no longer ranked are hidden.
+     *
+     * @return the new ranking, or null if the ranking was cut off and the entry may have to make
+     * room for an item which isn't ranked, so that every item must be scored again
+     */
+    private ItemEntry[] rerank(ItemEntry entry, RowChanges changes) {
+        List<ItemEntry> ranking = new ArrayList<>(Arrays.asList(rankedEntries));
+        ranking.remove(entry);
+        entry.rankCost = new FuzzyMatcher(filter).cost(entry.item.getName());
+        boolean matches = entry.rankCost != FuzzyMatcher.NO_MATCH;
+        int rank = matches ? Collections.binarySearch(ranking, entry, rankOrder) : ranking.size();
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+
+        if (rank < ranking.size()) {
+            ranking.add(rank, entry);
+            if (ranking.size() > MAX_RANKED_RESULTS) {
+                ranking.remove(ranking.size() - 1);
+                rankingTruncated = true;
+            }
+        } else if (ranking.size() < MAX_RANKED_RESULTS) {
+            if (rankingTruncated && (matches || entry.rank != -1)) {
+                return null;
+            } else if (matches) {
+                ranking.add(entry);
+            }
+        }
+
+        Set<ItemEntry> ranked = new HashSet<>(ranking);
+        for (int i = rankedEntries.length - 1; i >= 0; i--) {
+            ItemEntry previous = rankedEntries[i];
+            if (!ranked.contains(previous)) {
+                hide(previous, changes);
+                changes.changedCategories.add(previous.category);
+                previous.rank = -1;
+            }
+        }
+        return ranking.toArray(new ItemEntry[ranking.size()]);
+    }
+
+    /**
+     * Drops ranked entries for items which have been removed
+     */
+    private void compactRankedEntries() {
+        int count = 0;
+        for (ItemEntry entry : rankedEntries) {
+            if (itemEntries.get(entry.item.getId()) == entry) {
+                entry.rank = count;
+                rankedEntries[count++] = entry;
             }
         }
+        rankedEntries = Arrays.copyOf(rankedEntries, count);
     }
 
     public int getRowCount() {
-        return displayedRows.size();
+        if (isGroupedByCategory) {
+            return root.getChildRowCount();
+        }
+        return rankedEntries != null ? rankedEntries.length : flatItems().getTotalWeight();
     }
 
     public Object getRow(int position) {
-        return displayedRows.get(position);
+        if (position < 0 || position >= getRowCount()) {
+            throw new IndexOutOfBoundsException("Position " + position + ", row count " + getRowCount());
+        }
+        if (!isGroupedByCategory) {
+            if (rankedEntries != null) {
+                return rankedEntries[position].item;
+            }
+            return flatItems().findByOffset(position).getValue().item;
+        }
+
+        CategoryNode node = root;
+        while (true) {
+            if (node != root) {
+                if (position == 0) {
+                    return node.category;
+                }
+                position--;
+            }
+            int subcategoryRows = node.subcategories.getTotalWeight();
+            if (position >= subcategoryRows) {
+                return node.items().findByOffset(position - subcategoryRows).getValue().item;
+            }
+            IndexedTree.Node<CategoryNode> child = node.subcategories.findByOffset(position);
+            position -= node.subcategories.offsetOf(child);
+            node = child.getValue();
+        }
     }
 
     public boolean isExpanded(DemoCategory category) {
-        return isExpanded.get(category.getId());
+        return getCategoryNode(category.getId()).expanded;
+    }
+
+    public int getDepth(DemoCategory category) {
+        int depth = 0;
+        for (CategoryNode node = getCategoryNode(category.getId()).parent; node != root; node = node.parent) {
+            depth++;
+        }
+        return depth;
     }
 
     public void collapseParent(DemoCategory category) {
-        if (!isExpanded.get(category.getId())) {
+        CategoryNode node = getCategoryNode(category.getId());
+        if (!node.expanded) {
             return;
         }
-        isExpanded.put(category.getId(), false);
+        int position = positionOf(node);
+        int childRowCount = node.getChildRowCount();
+        node.expanded = false;
+        updateAggregates(node, 0, 0, 0, 0);
 
-        int position = displayedRows.indexOf(category);
-        int childPosition = position + 1;
-        while (childPosition < displayedRows.size() && getRow(childPosition) instanceof DemoItem) {
-            displayedRows.remove(childPosition);
+        if (position != -1) {
+            itemChangeListener.notifyItemChanged(position);
+            itemChangeListener.notifyItemRangeRemoved(position + 1, childRowCount);
         }
-
-        itemChangeListener.notifyItemChanged(position);
-        itemChangeListener.notifyItemRangeRemoved(childPosition, this.itemsPerCategory.get(category.getId()).size());
     }
 
     public void expandParent(DemoCategory category) {
-        if (isExpanded.get(category.getId())) {
+        CategoryNode node = getCategoryNode(category.getId());
+        if (node.expanded) {
             return;
         }
-        isExpanded.put(category.getId(), true);
+        node.expanded = true;
+        updateAggregates(node, 0, 0, 0, 0);
 
-        int position = displayedRows.indexOf(category);
-        List<DemoItem> children = new ArrayList<>(this.itemsPerCategory.get(category.getId()));
-        Collections.sort(children);
-        displayedRows.addAll(position + 1, children);
-        itemChangeListener.notifyItemChanged(position);
-        itemChangeListener.notifyItemRangeInserted(position + 1, children.size());
+        int position = positionOf(node);
+        if (position != -1) {
+            itemChangeListener.notifyItemChanged(position);
+            itemChangeListener.notifyItemRangeInserted(position + 1, node.getChildRowCount());
+        }
     }
 
     public void remove(int position) {
-        Object o = displayedRows.remove(position);
+        modificationCount++;
+        Object o = getRow(position);
         if (o instanceof DemoCategory) {
-            categories.remove(o);
-            DemoCategory category = (DemoCategory) o;
-            List<DemoItem> itemsToRemove = itemsPerCategory.remove(category.getId());
+            CategoryNode node = getCategoryNode(((DemoCategory) o).getId());
+            CategoryNode hiddenAncestor = getOutermostHiddenBy(node.parent, node.visibleItemCount);
+            if (hiddenAncestor != null) {
+                position = positionOf(hiddenAncestor);
+            }
+            int removedRowCount = (hiddenAncestor != null ? hiddenAncestor : node).getRowCount();
 
-            if (isExpanded.get(category.getId())) {
-                for (int i = 0; i < itemsToRemove.size(); i++) {
-                    displayedRows.remove(position);
-                }
-                itemChangeListener.notifyItemRangeRemoved(position, 1 + itemsToRemove.size());
-            } else {
-                itemChangeListener.notifyItemRemoved(position);
+            node.parent.subcategories.remove(node.handle);
+            forgetCategory(node);
+            if (rankedEntries != null) {
+                compactRankedEntries();
             }
+            updateAggregates(node.parent, -node.itemCount, -node.visibleItemCount, -node.totalPrice, -node.visiblePrice);
+            notifyRowsRemoved(position, removedRowCount);
+            notifyCategoryChanged(node.parent);
         } else if (o instanceof DemoItem) {
-            DemoItem item = (DemoItem) o;
-            itemsPerCategory.get(item.getCategoryId()).remove(item);
-            items.remove(item);
-            itemChangeListener.notifyItemRemoved(position);
+            ItemEntry entry = itemEntries.get(((DemoItem) o).getId());
+            RowChanges changes = new RowChanges();
+            removeEntry(entry, changes);
+            changes.flush();
+            notifyCategoryChanged(entry.category);
+        }
+    }
+
+    private void removeEntry(ItemEntry entry, RowChanges changes) {
+        if (entry.visible) {
+            hide(entry, changes);
+        }
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            entry.category.itemIndexes[i].remove(entry.categoryHandles[i]);
+            flatIndexes[i].remove(entry.flatHandles[i]);
+        }
+        forgetEntry(entry);
+        if (entry.rank != -1) {
+            compactRankedEntries();
+        }
+        updateAggregates(entry, -1, 0, -entry.price, 0);
+        changes.changedCategories.add(entry.category);
+    }
+
+    /**
+     * Inserts an item, hidden to begin with in the indexes of other sort orders than the current
+     */
+    private void insertEntry(DemoItem item, RowChanges changes) {
+        ItemEntry entry = createEntry(item);
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            entry.categoryHandles[i] = entry.category.itemIndexes[i].insert(entry, 0);
+            entry.flatHandles[i] = flatIndexes[i].insert(entry, 0);
+        }
+        updateAggregates(entry, 1, 0, entry.price, 0);
+        if (matchesFilter(entry)) {
+            show(entry, changes);
+        }
+        changes.changedCategories.add(entry.category);
+    }
+
+    private ItemEntry createEntry(DemoItem item) {
+        ItemEntry entry = new ItemEntry(item, getCategoryNode(item.getCategoryId()), entriesByOrdinal.size());
+        entriesByOrdinal.add(entry);
+        itemEntries.put(item.getId(), entry);
+        return entry;
+    }
+
+    private void forgetEntry(ItemEntry entry) {
+        itemEntries.remove(entry.item.getId());
+        entriesByOrdinal.set(entry.ordinal, null);
+        selection.clear(entry.ordinal);
+    }
 
-            if (itemsPerCategory.get(item.getCategoryId()).isEmpty()) {
-                displayedRows.remove(position - 1);
-                itemChangeListener.notifyItemRemoved(position - 1);
+    /**
+     * Removes the category from its parent, along with its subcategories and items
+     */
+    private void detachCategory(CategoryNode node, RowChanges changes) {
+        if (isAttached(node)) {
+            CategoryNode hiddenAncestor = getOutermostHiddenBy(node.parent, node.visibleItemCount);
+            CategoryNode removedRows = hiddenAncestor != null ? hiddenAncestor : node;
+            int position = positionOf(removedRows);
+            if (position != -1) {
+                changes.removed(position, removedRows.getRowCount());
             }
         }
+        node.parent.subcategories.remove(node.handle);
+        updateAggregates(node.parent, -node.itemCount, -node.visibleItemCount, -node.totalPrice, -node.visiblePrice);
+        changes.changedCategories.add(node.parent);
+        node.parent = null;
+        node.handle = null;
+    }
+
+    /**
+     * Inserts a detached category under the parent given by its category, along with its subcategories and items
+     */
+    private void attachCategory(CategoryNode node, RowChanges changes) {
+        node.parent = getParentNode(node.category);
+        node.handle = node.parent.subcategories.insert(node, node.getRowCount());
+        updateAggregates(node.parent, node.itemCount, node.visibleItemCount, node.totalPrice, node.visiblePrice);
+        if (isAttached(node)) {
+            CategoryNode shownAncestor = getOutermostHiddenBy(node.parent, node.visibleItemCount);
+            CategoryNode insertedRows = shownAncestor != null ? shownAncestor : node;
+            int position = positionOf(insertedRows);
+            if (position != -1) {
+                changes.inserted(position, insertedRows.getRowCount());
+            }
+        }
+        changes.changedCategories.add(node);
+    }
+
+    private boolean isAttached(CategoryNode node) {
+        for (CategoryNode current = node; current != root; current = current.parent) {
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void forgetCategory(CategoryNode node) {
+        categoryNodes.remove(node.category.getId());
+        for (ItemEntry entry : node.items()) {
+            for (int i = 0; i < SORT_ORDERS.length; i++) {
+                flatIndexes[i].remove(entry.flatHandles[i]);
+            }
+            forgetEntry(entry);
+        }
+        for (CategoryNode child : node.subcategories) {
+            forgetCategory(child);
+        }
+    }
+
+    /**
+     * @return the outermost category (starting with the given node) which will have no visible items
+     * left when the given number of its visible items disappear, or null if there is no such category
+     */
+    private CategoryNode getOutermostHiddenBy(CategoryNode node, int lostVisibleItems) {
+        CategoryNode result = null;
+        for (CategoryNode current = node; current != root; current = current.parent) {
+            if (current.visibleItemCount > lostVisibleItems) {
+                break;
+            }
+            result = current;
+        }
+        return result;
+    }
+
+    /**
+     * Notifies that the headers of the category and its ancestors must be rebound to show their new aggregates
+     */
+    private void notifyCategoryChanged(CategoryNode node) {
+        for (CategoryNode current = node; current != root; current = current.parent) {
+            int position = positionOf(current);
+            if (position != -1) {
+                itemChangeListener.notifyItemChanged(position);
+            }
+        }
+    }
+
+    private void notifyRowsRemoved(int position, int count) {
+        if (count == 1) {
+            itemChangeListener.notifyItemRemoved(position);
+        } else if (count > 1) {
+            itemChangeListener.notifyItemRangeRemoved(position, count);
+        }
     }
 
     public int indexOf(Object o) {
-        return displayedRows.indexOf(o);
+        if (o instanceof DemoCategory) {
+            CategoryNode node = categoryNodes.get(((DemoCategory) o).getId());
+            return node != null ? positionOf(node) : -1;
+        } else if (o instanceof DemoItem) {
+            ItemEntry entry = itemEntries.get(((DemoItem) o).getId());
+            return entry != null ? positionOf(entry) : -1;
+        }
+        return -1;
+    }
+
+    private int positionOf(CategoryNode node) {
+        if (!isGroupedByCategory || node.visibleItemCount == 0) {
+            return -1;
+        }
+        int position = 0;
+        for (CategoryNode current = node; current.parent != null; current = current.parent) {
+            if (current.parent != root) {
+                if (!current.parent.expanded) {
+                    return -1;
+                }
+                position++;
+            }
+            position += current.parent.subcategories.offsetOf(current.handle);
+        }
+        return position;
+    }
+
+    private int positionOf(ItemEntry entry) {
+        if (!entry.visible) {
+            return -1;
+        }
+        if (!isGroupedByCategory) {
+            return rankedEntries != null ? entry.rank : flatItems().offsetOf(entry.flatHandle());
+        }
+        CategoryNode category = entry.category;
+        int categoryPosition = positionOf(category);
+        if (categoryPosition == -1 || !category.expanded) {
+            return -1;
+        }
+        return categoryPosition + 1 + category.subcategories.getTotalWeight()
+                + category.items().offsetOf(entry.categoryHandle());
     }
 
     public void toggleCollapsed(DemoCategory category) {
@@ -187,44 +733,857 @@ public class DemoCategorizedListModel {
         redisplay();
     }
 
+    /**
+     * Changes the filter to one for which the matching items are already known, and notifies
+     * about the rows that were hidden or shown instead of the whole data set. Rows are visited
+     * in display order, so that adjacent changes are notified as one range.
+     *
+     * In fuzzy mode, the items are ranked, and the matching items are ignored.
+     *
+     * @param matchingItems the items matching the filter, or null if all items match
+     */
+    public void applyFilter(String filter, Set<DemoItem> matchingItems) {
+        if (searchMode == SearchMode.FUZZY) {
+            setFilter(filter);
+            return;
+        }
+        this.filter = filter;
+        showOnly(matchingItems);
+    }
+
+    /**
+     * Changes to a fuzzy filter for which the best matching items are already known. When grouped
+     * by category, notifies about the rows that were hidden or shown, otherwise the whole list changes.
+     * Outside of fuzzy mode, the ranking is ignored.
+     *
+     * @param rankedItems the best matching items, best first, or null if there is no filter
+     */
+    public void applyRanking(String filter, List<DemoItem> rankedItems) {
+        if (searchMode != SearchMode.FUZZY) {
+            setFilter(filter);
+            return;
+        }
+        this.filter = filter;
+        clearRanks();
+        if (filter != null) {
+            List<ItemEntry> entries = new ArrayList<>();
+            for (DemoItem item : rankedItems) {
+                ItemEntry entry = itemEntries.get(item.getId());
+                if (entry != null) {
+                    entry.rank = entries.size();
+                    entries.add(entry);
+                }
+            }
+            rankedEntries = entries.toArray(new ItemEntry[entries.size()]);
+            rankingTruncated = rankedItems.size() >= MAX_RANKED_RESULTS;
+            scoreRankedEntries(new FuzzyMatcher(filter));
+        }
+        if (isGroupedByCategory) {
+            showOnly(filter != null ? new HashSet<>(rankedItems) : null);
+        } else {
+            refresh();
+        }
+    }
+
+    private void showOnly(Set<DemoItem> matchingItems) {
+        RowChanges changes = new RowChanges();
+        if (isGroupedByCategory) {
+            applyFilter(root, matchingItems, changes);
+        } else {
+            for (ItemEntry entry : flatItems()) {
+                applyFilter(entry, matchingItems, changes);
+            }
+        }
+        changes.finish();
+    }
+
+    private void applyFilter(CategoryNode node, Set<DemoItem> matchingItems, RowChanges changes) {
+        for (CategoryNode child : node.subcategories) {
+            applyFilter(child, matchingItems, changes);
+        }
+        for (ItemEntry entry : node.items()) {
+            applyFilter(entry, matchingItems, changes);
+        }
+    }
+
+    private void applyFilter(ItemEntry entry, Set<DemoItem> matchingItems, RowChanges changes) {
+        boolean visible = matchingItems == null || matchingItems.contains(entry.item);
+        if (entry.visible && !visible) {
+            hide(entry, changes);
+            changes.changedCategories.add(entry.category);
+        } else if (!entry.visible && visible) {
+            show(entry, changes);
+            changes.changedCategories.add(entry.category);
+        }
+    }
+
+    /**
+     * Incremented whenever items are removed or updated, so that copies of the item names
+     * can be recognized as stale
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * @return all items, in the current sort order
+     */
+    public List<DemoItem> getItems() {
+        List<DemoItem> result = new ArrayList<>(itemEntries.size());
+        for (ItemEntry entry : flatItems()) {
+            result.add(entry.item);
+        }
+        return result;
+    }
+
+    public boolean isSelected(DemoItem item) {
+        ItemEntry entry = itemEntries.get(item.getId());
+        return entry != null && selection.get(entry.ordinal);
+    }
+
+    /**
+     * Items which are not in the model, such as items which have been removed, are ignored
+     */
+    public void setSelected(DemoItem item, boolean selected) {
+        ItemEntry entry = itemEntries.get(item.getId());
+        if (entry == null || selection.get(entry.ordinal) == selected) {
+            return;
+        }
+        selection.set(entry.ordinal, selected);
+        int position = positionOf(entry);
+        if (position != -1) {
+            itemChangeListener.notifyItemChanged(position);
+        }
+    }
+
+    public void toggleSelected(DemoItem item) {
+        setSelected(item, !isSelected(item));
+    }
+
+    /**
+     * Selects the visible items in the category and its subcategories
+     */
+    public void selectAll(DemoCategory category) {
+        CategoryNode node = getCategoryNode(category.getId());
+        selectVisibleItems(node);
+        int position = positionOf(node);
+        if (position != -1 && node.expanded) {
+            itemChangeListener.notifyItemRangeChanged(position + 1, node.getChildRowCount());
+        }
+    }
+
+    private void selectVisibleItems(CategoryNode node) {
+        for (CategoryNode child : node.subcategories) {
+            selectVisibleItems(child);
+        }
+        for (ItemEntry entry : node.items()) {
+            if (entry.visible) {
+                selection.set(entry.ordinal);
+            }
+        }
+    }
+
+    /**
+     * Selects the items displayed from one position to another, both included. The part of the
+     * range which is outside of the displayed rows is ignored.
+     */
+    public void selectRange(int fromPosition, int toPosition) {
+        int start = Math.max(Math.min(fromPosition, toPosition), 0);
+        int end = Math.min(Math.max(fromPosition, toPosition) + 1, getRowCount());
+        if (start >= end) {
+            return;
+        }
+        for (Object row : displayedRows.subList(start, end)) {
+            if (row instanceof DemoItem) {
+                selection.set(itemEntries.get(((DemoItem) row).getId()).ordinal);
+            }
+        }
+        itemChangeListener.notifyItemRangeChanged(start, end - start);
+    }
+
+    public void clearSelection() {
+        if (selection.isEmpty()) {
+            return;
+        }
+        selection.clear();
+        if (getRowCount() > 0) {
+            itemChangeListener.notifyItemRangeChanged(0, getRowCount());
+        }
+    }
+
+    public int getSelectedCount() {
+        return selection.cardinality();
+    }
+
+    /**
+     * @return the selected items, indexed by their position in the list the model was created with,
+     * followed by the items which have been added since
+     */
+    public BitSet getSelection() {
+        return (BitSet) selection.clone();
+    }
+
+    public void setSelection(BitSet selection) {
+        this.selection.clear();
+        for (int i = selection.nextSetBit(0); i >= 0 && i < entriesByOrdinal.size(); i = selection.nextSetBit(i + 1)) {
+            if (entriesByOrdinal.get(i) != null) {
+                this.selection.set(i);
+            }
+        }
+        itemChangeListener.notifyDataSetChanged();
+    }
+
+    public List<DemoItem> getSelectedItems() {
+        List<DemoItem> result = new ArrayList<>(selection.cardinality());
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            result.add(entriesByOrdinal.get(i).item);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all selected items, also those hidden by the filter, in one pass from the last row
+     * to the first, so that removed rows which are next to each other are notified as one range
+     */
+    public void removeSelected() {
+        if (selection.isEmpty()) {
+            return;
+        }
+        modificationCount++;
+        RowChanges changes = new RowChanges();
+        for (ItemEntry entry : getSelectedEntriesFromLast()) {
+            removeEntry(entry, changes);
+        }
+        changes.finish();
+    }
+
+    /**
+     * Moves all selected items to another category, keeping them selected. The moved rows are
+     * removed from the last to the first and then inserted in their new order, so that rows
+     * which are next to each other are notified as one range.
+     */
+    public void moveSelected(DemoCategory category) {
+        CategoryNode target = getCategoryNode(category.getId());
+        List<ItemEntry> entries = getSelectedEntriesFromLast();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).category == target) {
+                entries.remove(i);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        modificationCount++;
+        RowChanges changes = new RowChanges();
+        List<ItemEntry> shownEntries = new ArrayList<>();
+        if (isGroupedByCategory) {
+            for (ItemEntry entry : entries) {
+                if (entry.visible) {
+                    hide(entry, changes);
+                    shownEntries.add(entry);
+                }
+            }
+        }
+        for (ItemEntry entry : entries) {
+            moveEntry(entry, target, changes);
+        }
+        Collections.sort(shownEntries, sortOrder.entryOrder);
+        for (ItemEntry entry : shownEntries) {
+            show(entry, changes);
+        }
+        changes.finish();
+    }
+
+    private void moveEntry(ItemEntry entry, CategoryNode target, RowChanges changes) {
+        int visibleItems = entry.getWeight();
+        long visiblePrice = entry.visible ? entry.price : 0;
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            entry.category.itemIndexes[i].remove(entry.categoryHandles[i]);
+        }
+        updateAggregates(entry, -1, -visibleItems, -entry.price, -visiblePrice);
+        changes.changedCategories.add(entry.category);
+
+        entry.category = target;
+        entry.item.setCategoryId(target.category.getId());
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            entry.categoryHandles[i] = target.itemIndexes[i].insert(entry, visibleItems);
+        }
+        updateAggregates(entry, 1, visibleItems, entry.price, visiblePrice);
+        changes.changedCategories.add(target);
+    }
+
+    /**
+     * @return the selected entries from the last row to the first, where entries in a collapsed
+     * category are placed at the row of its header, followed by the entries which are hidden by the filter
+     */
+    private List<ItemEntry> getSelectedEntriesFromLast() {
+        final Map<ItemEntry, Integer> positions = new HashMap<>();
+        List<ItemEntry> result = new ArrayList<>();
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            ItemEntry entry = entriesByOrdinal.get(i);
+            int position = positionOf(entry);
+            for (CategoryNode node = entry.category; position == -1 && entry.visible && isGroupedByCategory && node != root; node = node.parent) {
+                position = positionOf(node);
+            }
+            positions.put(entry, position);
+            result.add(entry);
+        }
+        Collections.sort(result, new Comparator<ItemEntry>() {
+            @Override
+            public int compare(ItemEntry lhs, ItemEntry rhs) {
+                return Integer.compare(positions.get(rhs), positions.get(lhs));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Moves a changed item to its new place in the sort order, and notifies the move, or the rows
+     * that appear or disappear as the item starts or stops matching the filter. Items which are
+     * not in the model, such as items which have been removed, are ignored.
+     */
     public void update(DemoItem item) {
-        int position = indexOf(item);
-        if (!matchesFilter(item)) {
-            if (position != -1) {
-                displayedRows.remove(position);
+        ItemEntry entry = itemEntries.get(item.getId());
+        if (entry == null) {
+            return;
+        }
+        modificationCount++;
+        int priceDelta = item.getPrice() - entry.price;
+        if (priceDelta != 0) {
+            entry.price = item.getPrice();
+            updateAggregates(entry, 0, 0, priceDelta, entry.visible ? priceDelta : 0);
+        }
+        RowChanges changes = new RowChanges();
+        ItemEntry[] ranking = null;
+        if (rankedEntries != null) {
+            ranking = rerank(entry, changes);
+            if (ranking == null) {
+                reindex(entry);
+                redisplay();
+                return;
+            }
+        }
+        int position = positionOf(entry);
+        boolean wasVisible = entry.visible;
+        if (ranking != null) {
+            rankedEntries = ranking;
+            for (int i = 0; i < ranking.length; i++) {
+                ranking[i].rank = i;
+            }
+        }
+        boolean visible = matchesFilter(entry);
+        if (wasVisible && !visible) {
+            hide(entry, changes);
+            reindex(entry);
+        } else if (!wasVisible && visible) {
+            reindex(entry);
+            show(entry, changes);
+        } else {
+            reindex(entry);
+            int newPosition = positionOf(entry);
+            if (position != -1 && newPosition != position) {
+                itemChangeListener.notifyItemMoved(position, newPosition);
+            }
+            if (newPosition != -1) {
+                itemChangeListener.notifyItemChanged(newPosition);
+            }
+        }
+        if (priceDelta != 0 || wasVisible != visible) {
+            changes.changedCategories.add(entry.category);
+        }
+        changes.finish();
+    }
 
-                if (isGroupedByCategory && !categoryHasVisibleItems(item.getCategoryId())) {
-                    displayedRows.remove(position - 1);
-                    itemChangeListener.notifyItemRangeRemoved(position - 1, 2);
-                } else {
-                    itemChangeListener.notifyItemRemoved(position);
+    /**
+     * Replaces all categories and items with a new version of the data, matching categories and items
+     * to the current ones by id. Only what changed is touched, so when most of the data is unchanged
+     * this is O(n), plus O(log n) for each change. Expanded categories, the filter and the sort order
+     * are kept, and the rows that were removed, inserted, moved or changed are notified. From now on,
+     * {@link #getCollapsedCategories()} refers to the categories by their position in the new list.
+     */
+    public void replaceAll(List<DemoCategory> categories, List<DemoItem> items) {
+        Map<UUID, DemoCategory> newCategories = new HashMap<>();
+        for (DemoCategory category : categories) {
+            newCategories.put(category.getId(), category);
+        }
+        for (DemoCategory category : categories) {
+            int depth = 0;
+            for (UUID parentId = category.getParentId(); parentId != null; parentId = newCategories.get(parentId).getParentId()) {
+                if (!newCategories.containsKey(parentId)) {
+                    throw new IllegalArgumentException("Unknown parent category for " + category);
+                } else if (++depth > categories.size()) {
+                    throw new IllegalArgumentException("Cyclic parent categories for " + category);
                 }
             }
-        } else if (position == -1) {
+        }
+        Map<UUID, DemoItem> newItems = new HashMap<>();
+        for (DemoItem item : items) {
+            if (!newCategories.containsKey(item.getCategoryId())) {
+                throw new IllegalArgumentException("Unknown category " + item.getCategoryId());
+            }
+            newItems.put(item.getId(), item);
+        }
+
+        modificationCount++;
+        // The ranking has to be redone for the new names, so there is no point in notifying each change
+        ItemChangeListener listener = itemChangeListener;
+        boolean ranked = rankedEntries != null;
+        if (ranked) {
+            clearRanks();
+            itemChangeListener = new NullItemChangeListener();
+        }
+        RowChanges changes = new RowChanges();
+
+        List<ItemEntry> removedEntries = new ArrayList<>();
+        if (isGroupedByCategory) {
+            collectRemovedEntries(root, newItems, removedEntries);
+        } else {
+            for (ItemEntry entry : flatItems()) {
+                if (!newItems.containsKey(entry.item.getId())) {
+                    removedEntries.add(entry);
+                }
+            }
+        }
+        for (ItemEntry entry : removedEntries) {
+            removeEntry(entry, changes);
+        }
+
+        List<CategoryNode> movedCategories = new ArrayList<>();
+        List<DemoCategory> renamedCategories = new ArrayList<>();
+        for (int i = 0; i < categories.size(); i++) {
+            DemoCategory category = categories.get(i);
+            CategoryNode node = categoryNodes.get(category.getId());
+            if (node == null) {
+                node = new CategoryNode(category, i);
+                categoryNodes.put(category.getId(), node);
+                movedCategories.add(node);
+                continue;
+            }
+            node.ordinal = i;
+            if (!equal(node.category.getParentId(), category.getParentId())) {
+                detachCategory(node, changes);
+                movedCategories.add(node);
+            } else if (!node.category.getName().equals(category.getName())) {
+                // Keeps the old name until it is moved among its siblings, so that their order stays consistent
+                renamedCategories.add(category);
+                continue;
+            }
+            node.category = category;
+        }
+        Set<CategoryNode> detachedCategories = new LinkedHashSet<>(movedCategories);
+        for (CategoryNode node : movedCategories) {
+            attachCategoryAfterParent(node, detachedCategories, changes);
+        }
+        for (DemoCategory category : renamedCategories) {
+            changes.flush();
+            CategoryNode node = categoryNodes.get(category.getId());
+            renameCategory(node, category);
+            changes.changedCategories.add(node);
+        }
+
+        for (DemoItem item : items) {
+            ItemEntry entry = itemEntries.get(item.getId());
+            if (entry == null) {
+                insertEntry(item, changes);
+            } else if (!entry.category.category.getId().equals(item.getCategoryId())) {
+                removeEntry(entry, changes);
+                insertEntry(item, changes);
+            } else if (entry.item != item) {
+                DemoItem previous = entry.item;
+                entry.item = item;
+                if (!previous.getName().equals(item.getName()) || previous.getPrice() != item.getPrice()
+                        || previous.getUpdatedAt() != item.getUpdatedAt()) {
+                    changes.flush();
+                    update(item);
+                }
+            }
+        }
+
+        for (CategoryNode node : new ArrayList<>(categoryNodes.values())) {
+            if (!newCategories.containsKey(node.category.getId())) {
+                categoryNodes.remove(node.category.getId());
+                if (node.parent != null) {
+                    node.parent.subcategories.remove(node.handle);
+                    changes.changedCategories.add(node.parent);
+                    node.parent = null;
+                }
+            }
+        }
+        changes.finish();
+
+        if (ranked) {
+            itemChangeListener = listener;
             redisplay();
+        }
+    }
+
+    private void collectRemovedEntries(CategoryNode node, Map<UUID, DemoItem> newItems, List<ItemEntry> removedEntries) {
+        for (CategoryNode child : node.subcategories) {
+            collectRemovedEntries(child, newItems, removedEntries);
+        }
+        for (ItemEntry entry : node.items()) {
+            if (!newItems.containsKey(entry.item.getId())) {
+                removedEntries.add(entry);
+            }
+        }
+    }
+
+    private void attachCategoryAfterParent(CategoryNode node, Set<CategoryNode> detachedCategories, RowChanges changes) {
+        if (!detachedCategories.remove(node)) {
+            return;
+        }
+        CategoryNode parent = getParentNode(node.category);
+        if (detachedCategories.contains(parent)) {
+            attachCategoryAfterParent(parent, detachedCategories, changes);
+        }
+        attachCategory(node, changes);
+    }
+
+    /**
+     * Moves a category which has been given a new name to its new place among its siblings
+     */
+    private void renameCategory(CategoryNode node, DemoCategory category) {
+        int oldPosition = positionOf(node);
+        node.parent.subcategories.remove(node.handle);
+        node.category = category;
+        node.handle = node.parent.subcategories.insert(node, node.getRowCount());
+        int newPosition = positionOf(node);
+        if (oldPosition == newPosition) {
+            return;
+        }
+        int rowCount = node.getRowCount();
+        if (rowCount == 1) {
+            itemChangeListener.notifyItemMoved(oldPosition, newPosition);
         } else {
-            itemChangeListener.notifyItemChanged(position);
+            notifyRowsRemoved(oldPosition, rowCount);
+            itemChangeListener.notifyItemRangeInserted(newPosition, rowCount);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Moves the entry to its new place in the index for each sort order, keeping its weights
+     */
+    private void reindex(ItemEntry entry) {
+        for (int i = 0; i < SORT_ORDERS.length; i++) {
+            IndexedTree<ItemEntry> categoryIndex = entry.category.itemIndexes[i];
+            int categoryWeight = entry.categoryHandles[i].getWeight();
+            categoryIndex.remove(entry.categoryHandles[i]);
+            entry.categoryHandles[i] = categoryIndex.insert(entry, categoryWeight);
+
+            int flatWeight = entry.flatHandles[i].getWeight();
+            flatIndexes[i].remove(entry.flatHandles[i]);
+            entry.flatHandles[i] = flatIndexes[i].insert(entry, flatWeight);
+        }
+    }
+
+    private void hide(ItemEntry entry, RowChanges changes) {
+        int position = positionOf(entry);
+        int removedRowCount = position != -1 ? 1 : 0;
+        if (isGroupedByCategory) {
+            CategoryNode hiddenCategory = getOutermostHiddenBy(entry.category, 1);
+            if (hiddenCategory != null && positionOf(hiddenCategory) != -1) {
+                position = positionOf(hiddenCategory);
+                removedRowCount = hiddenCategory.getRowCount();
+            }
+        }
+        setVisible(entry, false);
+        changes.removed(position, removedRowCount);
+    }
+
+    private void show(ItemEntry entry, RowChanges changes) {
+        setVisible(entry, true);
+        if (isGroupedByCategory) {
+            CategoryNode shownCategory = getOutermostHiddenBy(entry.category, 1);
+            if (shownCategory != null) {
+                int position = positionOf(shownCategory);
+                if (position != -1) {
+                    changes.inserted(position, shownCategory.getRowCount());
+                }
+                return;
+            }
+        }
+        int position = positionOf(entry);
+        if (position != -1) {
+            changes.inserted(position, 1);
+        }
+    }
+
+    private void setVisible(ItemEntry entry, boolean visible) {
+        entry.visible = visible;
+        entry.category.items().setWeight(entry.categoryHandle(), entry.getWeight());
+        flatItems().setWeight(entry.flatHandle(), entry.getWeight());
+        updateAggregates(entry, 0, visible ? 1 : -1, 0, visible ? entry.price : -entry.price);
+    }
+
+    private class CategoryNode {
+        private DemoCategory category;
+        private int ordinal;
+        private CategoryNode parent;
+        private IndexedTree.Node<CategoryNode> handle;
+        private final IndexedTree<CategoryNode> subcategories = new IndexedTree<>(CATEGORY_ORDER);
+        private final IndexedTree<ItemEntry>[] itemIndexes = createItemIndexes();
+        private boolean expanded = true;
+        private int itemCount, visibleItemCount;
+        private long totalPrice, visiblePrice;
+        private long directTotalPrice, directVisiblePrice;
+
+        private CategoryNode(DemoCategory category, int ordinal) {
+            this.category = category;
+            this.ordinal = ordinal;
+        }
+
+        private int getChildRowCount() {
+            return subcategories.getTotalWeight() + items().getTotalWeight();
+        }
+
+        private IndexedTree<ItemEntry> items() {
+            return itemIndexes[sortOrder.ordinal()];
+        }
+
+        private void recalculateDirectPrices() {
+            directTotalPrice = directVisiblePrice = 0;
+            for (ItemEntry entry : items()) {
+                directTotalPrice += entry.price;
+                if (entry.visible) {
+                    directVisiblePrice += entry.price;
+                }
+            }
+        }
+
+        private int getRowCount() {
+            if (visibleItemCount == 0) {
+                return 0;
+            }
+            return expanded ? 1 + getChildRowCount() : 1;
+        }
+    }
+
+    private class ItemEntry {
+        private DemoItem item;
+        private CategoryNode category;
+        @SuppressWarnings("unchecked")
+        private final IndexedTree.Node<ItemEntry>[] categoryHandles = new IndexedTree.Node[SORT_ORDERS.length];
+        @SuppressWarnings("unchecked")
+        private final IndexedTree.Node<ItemEntry>[] flatHandles = new IndexedTree.Node[SORT_ORDERS.length];
+        private boolean visible;
+        private int price;
+        private int rank = -1;
+        private int rankCost;
+        private final int ordinal;
+
+        private ItemEntry(DemoItem item, CategoryNode category, int ordinal) {
+            this.item = item;
+            this.category = category;
+            this.price = item.getPrice();
+            this.ordinal = ordinal;
+        }
+
+        private int getWeight() {
+            return visible ? 1 : 0;
+        }
+
+        private IndexedTree.Node<ItemEntry> categoryHandle() {
+            return categoryHandles[sortOrder.ordinal()];
+        }
+
+        private IndexedTree.Node<ItemEntry> flatHandle() {
+            return flatHandles[sortOrder.ordinal()];
         }
     }
 
-    private boolean categoryHasVisibleItems(UUID categoryId) {
-        for (DemoItem otherItem : this.itemsPerCategory.get(categoryId)) {
-            if (matchesFilter(otherItem)) {
-                return true;
+    /**
+     * Evaluates the filter while building the flat list for the current sort order, and then
+     * sorts and builds the other flat lists and the item lists of each category in parallel.
+     */
+    private class BuildTask extends RecursiveAction {
+        private final ItemEntry[] entries;
+
+        private BuildTask(ItemEntry[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            buildIndexes(sortOrder, filteredWeight);
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (final SortOrder otherOrder : SORT_ORDERS) {
+                if (otherOrder != sortOrder) {
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            buildIndexes(otherOrder, ENTRY_WEIGHT);
+                        }
+                    });
+                }
             }
+            ForkJoinSupport.invokeAll(tasks);
+        }
+
+        private void buildIndexes(final SortOrder order, IndexedTree.Weigher<ItemEntry> weigher) {
+            final int index = order.ordinal();
+            ItemEntry[] sortedEntries = entries.clone();
+            ForkJoinSupport.sort(sortedEntries, order.entryOrder);
+            List<IndexedTree.Node<ItemEntry>> flatHandles = flatIndexes[index].rebuild(Arrays.asList(sortedEntries), weigher);
+
+            Map<CategoryNode, List<ItemEntry>> entriesPerCategory = new HashMap<>();
+            for (int i = 0; i < sortedEntries.length; i++) {
+                sortedEntries[i].flatHandles[index] = flatHandles.get(i);
+                List<ItemEntry> categoryEntries = entriesPerCategory.get(sortedEntries[i].category);
+                if (categoryEntries == null) {
+                    categoryEntries = new ArrayList<>();
+                    entriesPerCategory.put(sortedEntries[i].category, categoryEntries);
+                }
+                categoryEntries.add(sortedEntries[i]);
+            }
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (final Map.Entry<CategoryNode, List<ItemEntry>> categoryEntries : entriesPerCategory.entrySet()) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        List<ItemEntry> categorySortedEntries = categoryEntries.getValue();
+                        List<IndexedTree.Node<ItemEntry>> handles =
+                                categoryEntries.getKey().itemIndexes[index].rebuild(categorySortedEntries, ENTRY_WEIGHT);
+                        for (int i = 0; i < categorySortedEntries.size(); i++) {
+                            categorySortedEntries.get(i).categoryHandles[index] = handles.get(i);
+                        }
+                        if (order == sortOrder) {
+                            categoryEntries.getKey().recalculateDirectPrices();
+                        }
+                    }
+                });
+            }
+            ForkJoinSupport.invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Reweighs the flat list for the current sort order, and then the item list of each category in parallel.
+     * Only the indexes for the current sort order have up to date weights.
+     */
+    private class ReweighTask extends RecursiveAction {
+        private final IndexedTree.Weigher<ItemEntry> flatWeigher;
+
+        private ReweighTask(IndexedTree.Weigher<ItemEntry> flatWeigher) {
+            this.flatWeigher = flatWeigher;
+        }
+
+        @Override
+        protected void compute() {
+            flatItems().reweigh(flatWeigher);
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (final CategoryNode node : categoryNodes.values()) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        node.items().reweigh(ENTRY_WEIGHT);
+                        node.recalculateDirectPrices();
+                    }
+                });
+            }
+            ForkJoinSupport.invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Collects row insertions or removals which are adjacent to each other into single notifications
+     */
+    private class RowChanges {
+        private int insertedPosition, insertedCount;
+        private int removedPosition, removedCount;
+        private final Set<CategoryNode> changedCategories = new LinkedHashSet<>();
+
+        private void inserted(int position, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (insertedCount > 0 && position >= insertedPosition && position <= insertedPosition + insertedCount) {
+                insertedCount += count;
+                return;
+            }
+            flush();
+            insertedPosition = position;
+            insertedCount = count;
+        }
+
+        private void removed(int position, int count) {
+            if (count == 0) {
+                return;
+            }
+            if (removedCount > 0 && position <= removedPosition && removedPosition <= position + count) {
+                removedPosition = position;
+                removedCount += count;
+                return;
+            }
+            flush();
+            removedPosition = position;
+            removedCount = count;
+        }
+
+        private void flush() {
+            if (insertedCount > 0) {
+                itemChangeListener.notifyItemRangeInserted(insertedPosition, insertedCount);
+                insertedCount = 0;
+            }
+            if (removedCount > 0) {
+                notifyRowsRemoved(removedPosition, removedCount);
+                removedCount = 0;
+            }
+        }
+
+        /**
+         * Flushes the row changes, and then notifies that the headers of the changed categories
+         * and their ancestors must be rebound to show their new aggregates
+         */
+        private void finish() {
+            flush();
+            Set<CategoryNode> headers = new LinkedHashSet<>();
+            for (CategoryNode node : changedCategories) {
+                CategoryNode current = node;
+                while (current != root && current != null && headers.add(current)) {
+                    current = current.parent;
+                }
+            }
+            for (CategoryNode node : headers) {
+                int position = isAttached(node) ? positionOf(node) : -1;
+                if (position != -1) {
+                    itemChangeListener.notifyItemChanged(position);
+                }
+            }
+        }
+    }
+
+    private class DisplayedRows extends AbstractList<Object> {
+        @Override
+        public Object get(int location) {
+            return getRow(location);
+        }
+
+        @Override
+        public int size() {
+            return getRowCount();
         }
-        return false;
     }
 
     public interface ItemChangeListener {
         void notifyItemChanged(int position);
 
+        void notifyItemRangeChanged(int positionStart, int itemCount);
+
         void notifyItemRangeInserted(int offset, int insertedItemCount);
 
         void notifyItemRangeRemoved(int offset, int removedItemCount);
 
         void notifyItemRemoved(int position);
 
+        void notifyItemMoved(int fromPosition, int toPosition);
+
         void notifyDataSetChanged();
     }
 
@@ -233,6 +1592,10 @@ public class DemoCategorizedListModel {
         public void notifyItemChanged(int position) {
         }
 
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        }
+
         @Override
         public void notifyItemRangeInserted(int offset, int insertedItemCount) {
         }
@@ -245,6 +1608,10 @@ public class DemoCategorizedListModel {
         public void notifyItemRemoved(int position) {
         }
 
+        @Override
+        public void notifyItemMoved(int fromPosition, int toPosition) {
+        }
+
         @Override
         public void notifyDataSetChanged() {
         }
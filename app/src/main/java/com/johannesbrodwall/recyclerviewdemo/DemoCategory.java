@@ -4,17 +4,31 @@ import java.util.UUID;
 
 public class DemoCategory implements Comparable<DemoCategory> {
     private final String name;
-    private UUID id;
+    private final UUID id;
+    private final UUID parentId;
 
     public DemoCategory(String name) {
+        this(name, null);
+    }
+
+    public DemoCategory(String name, DemoCategory parent) {
+        this(UUID.randomUUID(), name, parent != null ? parent.getId() : null);
+    }
+
+    public DemoCategory(UUID id, String name, UUID parentId) {
+        this.id = id;
         this.name = name;
-        this.id = UUID.randomUUID();
+        this.parentId = parentId;
     }
 
     public UUID getId() {
         return id;
     }
 
+    public UUID getParentId() {
+        return parentId;
+    }
+
     @Override
     public int compareTo(DemoCategory another) {
         return name.compareTo(another.name);
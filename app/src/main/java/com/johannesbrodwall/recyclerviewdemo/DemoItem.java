@@ -3,18 +3,43 @@ package com.johannesbrodwall.recyclerviewdemo;
 import java.util.UUID;
 
 public class DemoItem implements Comparable<DemoItem> {
+    private final UUID id;
     private String name;
-    private final UUID categoryId;
+    private UUID categoryId;
+    private int price;
+    private long updatedAt;
 
     public DemoItem(String name, DemoCategory categoryId) {
+        this(name, categoryId, 0, 0);
+    }
+
+    public DemoItem(String name, DemoCategory categoryId, int price, long updatedAt) {
+        this(UUID.randomUUID(), name, categoryId.getId(), price, updatedAt);
+    }
+
+    public DemoItem(UUID id, String name, UUID categoryId, int price, long updatedAt) {
+        this.id = id;
         this.name = name;
-        this.categoryId = categoryId.getId();
+        this.categoryId = categoryId;
+        this.price = price;
+        this.updatedAt = updatedAt;
+    }
+
+    public UUID getId() {
+        return id;
     }
 
     public UUID getCategoryId() {
         return categoryId;
     }
 
+    /**
+     * Only for the model, which must move the item between its categories at the same time
+     */
+    void setCategoryId(UUID categoryId) {
+        this.categoryId = categoryId;
+    }
+
     public String getName() {
         return name;
     }
@@ -32,4 +57,20 @@ public class DemoItem implements Comparable<DemoItem> {
     public void setName(String name) {
         this.name = name;
     }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public void setPrice(int price) {
+        this.price = price;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
 }
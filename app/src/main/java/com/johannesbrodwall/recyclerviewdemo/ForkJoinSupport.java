@@ -0,0 +1,87 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs recalculations of large models on a fork-join pool, and small ones on the calling thread.
+ * Tasks written for this class must check {@link ForkJoinTask#inForkJoinPool()} before forking.
+ */
+public class ForkJoinSupport {
+
+    public static final int PARALLEL_THRESHOLD = 20000;
+    private static final int SEQUENTIAL_SORT_SIZE = 8192;
+
+    private static ForkJoinPool pool;
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    public static <T> T invoke(ForkJoinTask<T> task, int size) {
+        if (size >= PARALLEL_THRESHOLD && !ForkJoinTask.inForkJoinPool()) {
+            return getPool().invoke(task);
+        }
+        return task.invoke();
+    }
+
+    public static void invokeAll(List<? extends ForkJoinTask<?>> tasks) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (ForkJoinTask<?> task : tasks) {
+                task.invoke();
+            }
+        }
+    }
+
+    /**
+     * Stable merge sort which sorts the halves in parallel when called from within a fork-join pool.
+     */
+    public static <T> void sort(T[] values, Comparator<? super T> comparator) {
+        new SortTask<>(values, values.clone(), comparator, 0, values.length).invoke();
+    }
+
+    private static class SortTask<T> extends RecursiveAction {
+        private final T[] values;
+        private final T[] buffer;
+        private final Comparator<? super T> comparator;
+        private final int start, end;
+
+        private SortTask(T[] values, T[] buffer, Comparator<? super T> comparator, int start, int end) {
+            this.values = values;
+            this.buffer = buffer;
+            this.comparator = comparator;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SEQUENTIAL_SORT_SIZE || !inForkJoinPool()) {
+                Arrays.sort(values, start, end, comparator);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new SortTask<>(values, buffer, comparator, start, middle),
+                    new SortTask<>(values, buffer, comparator, middle, end));
+
+            System.arraycopy(values, start, buffer, start, end - start);
+            int left = start, right = middle;
+            for (int i = start; i < end; i++) {
+                if (right >= end || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                    values[i] = buffer[left++];
+                } else {
+                    values[i] = buffer[right++];
+                }
+            }
+        }
+    }
+}
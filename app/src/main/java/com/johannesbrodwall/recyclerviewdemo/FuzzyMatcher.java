@@ -0,0 +1,93 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+/**
+ * Scores how well a query matches somewhere inside a text, ignoring case. The score is a cost:
+ * primarily the number of edits (inserted, deleted or substituted characters, or swapped
+ * neighbours) needed to make the query appear in the text, and secondly how far into the text
+ * the match ends. Longer queries tolerate more edits.
+ *
+ * The work arrays are reused between texts, so scoring doesn't allocate, and an instance
+ * must only be used by one thread at a time.
+ */
+public class FuzzyMatcher {
+
+    public static final int NO_MATCH = -1;
+
+    private static final int QUERY_LENGTH_PER_ERROR = 4;
+    private static final int MAX_POSITION = 1023;
+
+    private final char[] query;
+    private final int maxErrors;
+    private int[] beforePrevious, previous, current;
+
+    public FuzzyMatcher(String query) {
+        this.query = query.toLowerCase().toCharArray();
+        this.maxErrors = this.query.length / QUERY_LENGTH_PER_ERROR;
+        this.beforePrevious = new int[this.query.length + 1];
+        this.previous = new int[this.query.length + 1];
+        this.current = new int[this.query.length + 1];
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @return the cost of the best match of the query in the text, or {@link #NO_MATCH} if the
+     * query can't be matched with the allowed number of edits. Lower is better.
+     */
+    public int cost(CharSequence text) {
+        int m = query.length;
+        if (m == 0) {
+            return 0;
+        }
+
+        // Column j holds the edits needed to match the first i query characters ending at text position j.
+        // Row 0 is always 0, as a match may start anywhere in the text. Only rows up to the last one
+        // within the allowed errors are calculated, as the rows below can't get back within the limit
+        int tooMany = maxErrors + 1;
+        for (int i = 0; i <= maxErrors; i++) {
+            previous[i] = i;
+        }
+        int previousTop = maxErrors, beforePreviousTop = -1;
+        int bestErrors = tooMany, bestEnd = 0;
+        char previousChar = 0;
+        for (int j = 0; j < text.length(); j++) {
+            char c = Character.toLowerCase(text.charAt(j));
+            int top = Math.min(previousTop + 1, m);
+            current[0] = 0;
+            for (int i = 1; i <= top; i++) {
+                int diagonal = i - 1 <= previousTop ? previous[i - 1] : tooMany;
+                int left = i <= previousTop ? previous[i] : tooMany;
+                int edits = Math.min(diagonal + (query[i - 1] == c ? 0 : 1), Math.min(left, current[i - 1]) + 1);
+                if (i > 1 && i - 2 <= beforePreviousTop && query[i - 1] == previousChar && query[i - 2] == c) {
+                    edits = Math.min(edits, beforePrevious[i - 2] + 1);
+                }
+                current[i] = Math.min(edits, tooMany);
+            }
+            while (current[top] > maxErrors) {
+                top--;
+            }
+            if (top == m && current[m] < bestErrors) {
+                bestErrors = current[m];
+                bestEnd = j;
+                if (bestErrors == 0) {
+                    break;
+                }
+            }
+
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+            beforePreviousTop = previousTop;
+            previousTop = top;
+            previousChar = c;
+        }
+
+        if (bestErrors > maxErrors) {
+            return NO_MATCH;
+        }
+        return bestErrors * (MAX_POSITION + 1) + Math.min(bestEnd, MAX_POSITION);
+    }
+}
@@ -0,0 +1,365 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A sorted collection where every entry carries a weight (the number of rows it
+ * occupies in the list). Keeps the weight sum of every subtree, so that finding
+ * the entry at a given row offset, the row offset of an entry, and changing
+ * a weight are all O(log n). Implemented as a treap with parent pointers.
+ */
+public class IndexedTree<T> implements Iterable<T> {
+
+    private static final int SEQUENTIAL_BUILD_SIZE = 4096;
+    private static final int PARALLEL_REWEIGH_DEPTH = 6;
+
+    public interface Weigher<T> {
+        int getWeight(T value);
+    }
+
+    public static class Node<T> {
+        private final T value;
+        private final int priority;
+        private int weight;
+        private int weightSum;
+        private Node<T> left, right, parent;
+
+        private Node(T value, int weight, int priority) {
+            this.value = value;
+            this.weight = weight;
+            this.weightSum = weight;
+            this.priority = priority;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        private Node<T> next() {
+            if (right != null) {
+                Node<T> node = right;
+                while (node.left != null) {
+                    node = node.left;
+                }
+                return node;
+            }
+            Node<T> node = this;
+            while (node.parent != null && node == node.parent.right) {
+                node = node.parent;
+            }
+            return node.parent;
+        }
+
+        private void recalculate() {
+            weightSum = weight + weightSum(left) + weightSum(right);
+        }
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Random random = new Random();
+    private Node<T> root;
+    private int size;
+
+    public IndexedTree(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getTotalWeight() {
+        return weightSum(root);
+    }
+
+    public Node<T> insert(T value, int weight) {
+        Node<T> node = new Node<>(value, weight, random.nextInt());
+        size++;
+        if (root == null) {
+            root = node;
+            return node;
+        }
+
+        Node<T> parent = root;
+        while (true) {
+            parent.weightSum += weight;
+            if (comparator.compare(value, parent.value) < 0) {
+                if (parent.left == null) {
+                    parent.left = node;
+                    break;
+                }
+                parent = parent.left;
+            } else {
+                if (parent.right == null) {
+                    parent.right = node;
+                    break;
+                }
+                parent = parent.right;
+            }
+        }
+        node.parent = parent;
+
+        while (node.parent != null && node.parent.priority < node.priority) {
+            rotateUp(node);
+        }
+        return node;
+    }
+
+    public void remove(Node<T> node) {
+        while (node.left != null && node.right != null) {
+            rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+        }
+        Node<T> child = node.left != null ? node.left : node.right;
+        replaceChild(node.parent, node, child);
+        for (Node<T> ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.weightSum -= node.weight;
+        }
+        node.left = node.right = node.parent = null;
+        size--;
+    }
+
+    /**
+     * Replaces the contents of the tree with a balanced tree of the given values, which must already
+     * be sorted. Subtrees are built in parallel when called from within a fork-join pool.
+     *
+     * @return the nodes for the values, in the same order
+     */
+    public List<Node<T>> rebuild(List<? extends T> sortedValues, Weigher<? super T> weigher) {
+        @SuppressWarnings("unchecked")
+        Node<T>[] nodes = new Node[sortedValues.size()];
+        root = new BuildTask<T>(sortedValues, weigher, nodes, 0, nodes.length, 0).compute();
+        if (root != null) {
+            root.parent = null;
+        }
+        size = nodes.length;
+        return Arrays.asList(nodes);
+    }
+
+    /**
+     * Sets the weight of every node from the weigher and recalculates all weight sums in one pass.
+     * Subtrees are reweighed in parallel when called from within a fork-join pool.
+     */
+    public void reweigh(Weigher<? super T> weigher) {
+        if (root != null) {
+            new ReweighTask<T>(root, weigher, 0).compute();
+        }
+    }
+
+    public void setWeight(Node<T> node, int weight) {
+        int delta = weight - node.weight;
+        if (delta == 0) {
+            return;
+        }
+        node.weight = weight;
+        for (Node<T> ancestor = node; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.weightSum += delta;
+        }
+    }
+
+    /**
+     * @return the node covering the given row offset, or null if the offset is outside the total weight
+     */
+    public Node<T> findByOffset(int offset) {
+        Node<T> node = root;
+        while (node != null) {
+            int leftWeight = weightSum(node.left);
+            if (offset < leftWeight) {
+                node = node.left;
+            } else if (offset < leftWeight + node.weight) {
+                return node;
+            } else {
+                offset -= leftWeight + node.weight;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sum of the weights of all nodes before the given node
+     */
+    public int offsetOf(Node<T> node) {
+        int offset = weightSum(node.left);
+        for (Node<T> current = node; current.parent != null; current = current.parent) {
+            if (current == current.parent.right) {
+                offset += weightSum(current.parent.left) + current.parent.weight;
+            }
+        }
+        return offset;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Node<T> next = first();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                T value = next.value;
+                next = next.next();
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private Node<T> first() {
+        Node<T> node = root;
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private void rotateUp(Node<T> node) {
+        Node<T> parent = node.parent;
+        Node<T> grandparent = parent.parent;
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null) {
+                node.right.parent = parent;
+            }
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null) {
+                node.left.parent = parent;
+            }
+            node.left = parent;
+        }
+        parent.parent = node;
+        replaceChild(grandparent, parent, node);
+        parent.recalculate();
+        node.recalculate();
+    }
+
+    private void replaceChild(Node<T> parent, Node<T> oldChild, Node<T> newChild) {
+        if (newChild != null) {
+            newChild.parent = parent;
+        }
+        if (parent == null) {
+            root = newChild;
+        } else if (parent.left == oldChild) {
+            parent.left = newChild;
+        } else {
+            parent.right = newChild;
+        }
+    }
+
+    private static int weightSum(Node<?> node) {
+        return node != null ? node.weightSum : 0;
+    }
+
+    private static class BuildTask<T> extends RecursiveTask<Node<T>> {
+        private final List<? extends T> values;
+        private final Weigher<? super T> weigher;
+        private final Node<T>[] nodes;
+        private final int start, end, depth;
+
+        private BuildTask(List<? extends T> values, Weigher<? super T> weigher, Node<T>[] nodes, int start, int end, int depth) {
+            this.values = values;
+            this.weigher = weigher;
+            this.nodes = nodes;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Node<T> compute() {
+            if (start >= end) {
+                return null;
+            }
+            int middle = (start + end) >>> 1;
+            // Priorities decrease with depth, so the balanced shape satisfies the heap order
+            T value = values.get(middle);
+            Node<T> node = new Node<>(value, weigher.getWeight(value), Integer.MAX_VALUE - depth);
+            nodes[middle] = node;
+
+            BuildTask<T> leftTask = new BuildTask<>(values, weigher, nodes, start, middle, depth + 1);
+            BuildTask<T> rightTask = new BuildTask<>(values, weigher, nodes, middle + 1, end, depth + 1);
+            if (end - start > SEQUENTIAL_BUILD_SIZE && inForkJoinPool()) {
+                leftTask.fork();
+                node.right = rightTask.compute();
+                node.left = leftTask.join();
+            } else {
+                node.left = leftTask.compute();
+                node.right = rightTask.compute();
+            }
+            if (node.left != null) {
+                node.left.parent = node;
+            }
+            if (node.right != null) {
+                node.right.parent = node;
+            }
+            node.recalculate();
+            return node;
+        }
+    }
+
+    private static class ReweighTask<T> extends RecursiveAction {
+        private final Node<T> node;
+        private final Weigher<? super T> weigher;
+        private final int depth;
+
+        private ReweighTask(Node<T> node, Weigher<? super T> weigher, int depth) {
+            this.node = node;
+            this.weigher = weigher;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth < PARALLEL_REWEIGH_DEPTH && inForkJoinPool()) {
+                ForkJoinTask<?> leftTask = node.left != null ? new ReweighTask<>(node.left, weigher, depth + 1).fork() : null;
+                if (node.right != null) {
+                    new ReweighTask<>(node.right, weigher, depth + 1).compute();
+                }
+                if (leftTask != null) {
+                    leftTask.join();
+                }
+                node.weight = weigher.getWeight(node.value);
+                node.recalculate();
+            } else {
+                reweigh(node, weigher);
+            }
+        }
+
+        private static <T> void reweigh(Node<T> node, Weigher<? super T> weigher) {
+            node.weight = weigher.getWeight(node.value);
+            node.weightSum = node.weight;
+            if (node.left != null) {
+                reweigh(node.left, weigher);
+                node.weightSum += node.left.weightSum;
+            }
+            if (node.right != null) {
+                reweigh(node.right, weigher);
+                node.weightSum += node.right.weightSum;
+            }
+        }
+    }
+}
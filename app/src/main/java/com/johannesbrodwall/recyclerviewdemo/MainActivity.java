@@ -1,23 +1,48 @@
 package com.johannesbrodwall.recyclerviewdemo;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.Menu;
 import android.view.MenuItem;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executor;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final int SHOW_ITEM = 1423;
+    private static final String STATE_SEED = "seed";
+    private static final String STATE_COLLAPSED_CATEGORIES = "collapsedCategories";
+    private static final String STATE_FILTER = "filter";
+    private static final String STATE_GROUPED_BY_CATEGORY = "groupedByCategory";
+    private static final String STATE_SORT_ORDER = "sortOrder";
+    private static final String STATE_SEARCH_MODE = "searchMode";
+    private static final String STATE_SELECTION = "selection";
+    private static final String STATE_QUERY = "query";
+    private static final long SEARCH_DEBOUNCE_MILLIS = 150;
+
     private MenuItem toggleCategoriesMenuItem;
+    private MenuItem sortOrderMenuItem;
+    private MenuItem fuzzySearchMenuItem;
+    private MenuItem removeSelectedMenuItem;
+    private MenuItem moveSelectedMenuItem;
+    private MenuItem clearSelectionMenuItem;
     private DemoCategorizedListModel model;
+    private CategorizedListAdapter adapter;
+    private SearchPipeline searchPipeline;
+    private String query = "";
+    private long seed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -28,10 +53,25 @@ public class MainActivity extends AppCompatActivity {
 
         categorizedList.setLayoutManager(new LinearLayoutManager(this));
         categorizedList.addItemDecoration(new DividerItemDecoration(this));
-        model = getModel();
-        CategorizedListAdapter adapter = new CategorizedListAdapter(model, this);
+        model = getModel(savedInstanceState);
+        if (savedInstanceState != null) {
+            query = savedInstanceState.getString(STATE_QUERY, "");
+        }
+        adapter = new CategorizedListAdapter(model, this);
         categorizedList.setAdapter(adapter);
 
+        final Handler handler = new Handler();
+        searchPipeline = new SearchPipeline(model, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        }, SEARCH_DEBOUNCE_MILLIS);
+        if (!query.equals(model.getFilter() != null ? model.getFilter() : "")) {
+            // The last query was still waiting to be evaluated
+            searchPipeline.setQuery(query);
+        }
+
         adapter.setOnItemClickListener(new CategorizedListAdapter.OnItemClickListener() {
             @Override
             public void onClick(Object item) {
@@ -44,6 +84,31 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        searchPipeline.shutdown();
+        adapter.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return new RetainedState(model, seed);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(STATE_SEED, seed);
+        outState.putLongArray(STATE_COLLAPSED_CATEGORIES, model.getCollapsedCategories().toLongArray());
+        outState.putString(STATE_FILTER, model.getFilter());
+        outState.putBoolean(STATE_GROUPED_BY_CATEGORY, model.isGroupedByCategory());
+        outState.putString(STATE_SORT_ORDER, model.getSortOrder().name());
+        outState.putString(STATE_SEARCH_MODE, model.getSearchMode().name());
+        outState.putLongArray(STATE_SELECTION, model.getSelection().toLongArray());
+        outState.putString(STATE_QUERY, query);
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == SHOW_ITEM && resultCode == 1) {
@@ -55,9 +120,40 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        SearchView searchView = new SearchView(this);
+        MenuItem searchMenuItem = menu.add("Search");
+        searchMenuItem.setActionView(searchView);
+        searchMenuItem.setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM | MenuItem.SHOW_AS_ACTION_COLLAPSE_ACTION_VIEW);
+        if (!query.isEmpty()) {
+            // Expanding clears the query, and the restored filter is already applied to the model,
+            // so the query is shown before listening for changes
+            searchMenuItem.expandActionView();
+            searchView.setQuery(query, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                query = newText;
+                searchPipeline.setQuery(newText);
+                return true;
+            }
+        });
+
         toggleCategoriesMenuItem = menu.add("Toggle category view");
         toggleCategoriesMenuItem.setIcon(R.drawable.ic_list_24dp);
         toggleCategoriesMenuItem.setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+        sortOrderMenuItem = menu.add("Change sort order");
+        fuzzySearchMenuItem = menu.add("Fuzzy search");
+        fuzzySearchMenuItem.setCheckable(true);
+        fuzzySearchMenuItem.setChecked(model.getSearchMode() == DemoCategorizedListModel.SearchMode.FUZZY);
+        removeSelectedMenuItem = menu.add("Delete selected");
+        moveSelectedMenuItem = menu.add("Move selected");
+        clearSelectionMenuItem = menu.add("Clear selection");
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -65,26 +161,89 @@ public class MainActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item == toggleCategoriesMenuItem) {
             model.toggleCategories();
+        } else if (item == sortOrderMenuItem) {
+            DemoCategorizedListModel.SortOrder[] sortOrders = DemoCategorizedListModel.SortOrder.values();
+            model.setSortOrder(sortOrders[(model.getSortOrder().ordinal() + 1) % sortOrders.length]);
+        } else if (item == fuzzySearchMenuItem) {
+            item.setChecked(!item.isChecked());
+            model.setSearchMode(item.isChecked()
+                    ? DemoCategorizedListModel.SearchMode.FUZZY : DemoCategorizedListModel.SearchMode.SUBSTRING);
+        } else if (item == removeSelectedMenuItem) {
+            model.removeSelected();
+        } else if (item == moveSelectedMenuItem && model.getSelectedCount() > 0) {
+            showMoveSelectedDialog();
+        } else if (item == clearSelectionMenuItem) {
+            model.clearSelection();
         }
         return true;
     }
 
-    private DemoCategorizedListModel getModel() {
-        return new DemoCategorizedListModel(CATEGORIES, getItems());
+    private void showMoveSelectedDialog() {
+        String[] categoryNames = new String[CATEGORIES.size()];
+        for (int i = 0; i < categoryNames.length; i++) {
+            categoryNames[i] = CATEGORIES.get(i).getName();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Move " + model.getSelectedCount() + " items to")
+                .setItems(categoryNames, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        model.moveSelected(CATEGORIES.get(which));
+                    }
+                })
+                .show();
+    }
+
+    private DemoCategorizedListModel getModel(Bundle savedInstanceState) {
+        RetainedState retainedState = (RetainedState) getLastCustomNonConfigurationInstance();
+        if (retainedState != null) {
+            seed = retainedState.seed;
+            return retainedState.model;
+        }
+
+        if (savedInstanceState == null) {
+            seed = new Random().nextLong();
+            return new DemoCategorizedListModel(CATEGORIES, getItems(new Random(seed)));
+        }
+
+        seed = savedInstanceState.getLong(STATE_SEED);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(CATEGORIES, getItems(new Random(seed)));
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.valueOf(savedInstanceState.getString(STATE_SEARCH_MODE)));
+        model.restoreState(
+                BitSet.valueOf(savedInstanceState.getLongArray(STATE_COLLAPSED_CATEGORIES)),
+                savedInstanceState.getString(STATE_FILTER),
+                savedInstanceState.getBoolean(STATE_GROUPED_BY_CATEGORY),
+                DemoCategorizedListModel.SortOrder.valueOf(savedInstanceState.getString(STATE_SORT_ORDER)));
+        model.setSelection(BitSet.valueOf(savedInstanceState.getLongArray(STATE_SELECTION)));
+        return model;
+    }
+
+    private static class RetainedState {
+        private final DemoCategorizedListModel model;
+        private final long seed;
+
+        private RetainedState(DemoCategorizedListModel model, long seed) {
+            this.model = model;
+            this.seed = seed;
+        }
     }
 
-    private static final List<DemoCategory> CATEGORIES = Arrays.asList(new DemoCategory("foo"), new DemoCategory("bar"), new DemoCategory("baz"));
+    private static final DemoCategory FOO = new DemoCategory("foo");
+    private static final DemoCategory BAR = new DemoCategory("bar");
+    private static final List<DemoCategory> CATEGORIES = Arrays.asList(FOO, BAR, new DemoCategory("baz"),
+            new DemoCategory("foo bar", FOO), new DemoCategory("foo baz", FOO), new DemoCategory("bar baz", BAR));
 
-    private static List<DemoItem> getItems() {
+    private static List<DemoItem> getItems(Random random) {
         ArrayList<DemoItem> result = new ArrayList<>();
         for (int i=0; i<20; i++) {
-            result.add(new DemoItem("item " + i, pickRandom(CATEGORIES)));
+            long updatedAt = System.currentTimeMillis() - random.nextInt(30 * 24 * 60 * 60) * 1000L;
+            result.add(new DemoItem("item " + i, pickRandom(CATEGORIES, random), 10 + random.nextInt(990), updatedAt));
         }
         return result;
     }
 
-    private static <T> T pickRandom(List<T> alternatives) {
-        return alternatives.get(new Random().nextInt(alternatives.size()));
+    private static <T> T pickRandom(List<T> alternatives, Random random) {
+        return alternatives.get(random.nextInt(alternatives.size()));
     }
 
 
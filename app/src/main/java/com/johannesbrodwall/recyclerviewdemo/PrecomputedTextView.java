@@ -0,0 +1,85 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Shows a single text from a {@link TextLayoutCache}, so that text which was laid out ahead of
+ * time is drawn without being measured again.
+ */
+public class PrecomputedTextView extends View {
+
+    private TextLayoutCache<Layout> layouts;
+    private TextPaint paint;
+    private String text = "";
+    private Layout layout;
+    private boolean widthFromText;
+
+    public PrecomputedTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * @param paint the paint the layouts are made with, used to measure the width of the text
+     *              when the parent doesn't limit the width of the view
+     */
+    public void setLayouts(TextLayoutCache<Layout> layouts, TextPaint paint) {
+        this.layouts = layouts;
+        this.paint = paint;
+    }
+
+    public void setText(String text) {
+        if (text.equals(this.text)) {
+            return;
+        }
+        this.text = text;
+        setContentDescription(text);
+        Layout previousLayout = layout;
+        layout = getTextWidth() > 0 ? layouts.get(text, getTextWidth()) : null;
+        if (widthFromText || layout == null || previousLayout == null || layout.getHeight() != previousLayout.getHeight()) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * @return the width available to the text, or 0 if the view hasn't been laid out yet
+     */
+    public int getTextWidth() {
+        return Math.max(getWidth() - getPaddingLeft() - getPaddingRight(), 0);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width, textWidth;
+        widthFromText = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED;
+        if (widthFromText) {
+            // The size of an unspecified measure spec is meaningless, so the text is as wide as it needs to be
+            textWidth = (int) Math.ceil(Layout.getDesiredWidth(text, paint));
+            width = textWidth + getPaddingLeft() + getPaddingRight();
+        } else {
+            width = MeasureSpec.getSize(widthMeasureSpec);
+            textWidth = Math.max(width - getPaddingLeft() - getPaddingRight(), 0);
+        }
+        if (layout == null || layout.getWidth() != textWidth) {
+            layout = layouts.get(text, textWidth);
+        }
+        int height = layout.getHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (layout == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        layout.draw(canvas);
+        canvas.restore();
+    }
+}
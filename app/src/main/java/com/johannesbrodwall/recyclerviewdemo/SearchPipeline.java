@@ -0,0 +1,194 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates search-as-you-type queries against the model on a background thread. Queries are
+ * debounced, evaluations of superseded queries are abandoned, and a query which extends the
+ * previous one only searches the items which matched the previous query. Only the result
+ * for the latest query is applied to the model, as a diff. In fuzzy search mode, only the
+ * best matching items are kept, and they are applied as a ranking.
+ *
+ * {@link #setQuery(String)} must be called on the thread which owns the model, and
+ * the main thread executor must run tasks on that thread.
+ */
+public class SearchPipeline {
+
+    private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+    private static final int MAX_RANKED_RESULTS = DemoCategorizedListModel.MAX_RANKED_RESULTS;
+
+    private final DemoCategorizedListModel model;
+    private final Executor mainThreadExecutor;
+    private final long debounceMillis;
+    private final ScheduledExecutorService backgroundExecutor;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private ScheduledFuture<?> pendingSearch;
+    private Snapshot snapshot;
+    private Result lastResult;
+
+    public SearchPipeline(DemoCategorizedListModel model, Executor mainThreadExecutor, long debounceMillis) {
+        this(model, mainThreadExecutor, debounceMillis, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    SearchPipeline(DemoCategorizedListModel model, Executor mainThreadExecutor, long debounceMillis,
+                   ScheduledExecutorService backgroundExecutor) {
+        this.model = model;
+        this.mainThreadExecutor = mainThreadExecutor;
+        this.debounceMillis = debounceMillis;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    public void setQuery(String query) {
+        search(query == null || query.isEmpty() ? null : query, debounceMillis);
+    }
+
+    public void shutdown() {
+        generation.incrementAndGet();
+        backgroundExecutor.shutdownNow();
+    }
+
+    private void search(final String filter, long delayMillis) {
+        final int searchGeneration = generation.incrementAndGet();
+        if (pendingSearch != null) {
+            pendingSearch.cancel(false);
+        }
+        final Snapshot snapshot = getSnapshot();
+        final DemoCategorizedListModel.SearchMode searchMode = model.getSearchMode();
+        pendingSearch = backgroundExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                evaluate(filter, searchMode, snapshot, searchGeneration);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Snapshot getSnapshot() {
+        if (snapshot == null || snapshot.modificationCount != model.getModificationCount()) {
+            snapshot = new Snapshot(model.getModificationCount(), model.getItems());
+        }
+        return snapshot;
+    }
+
+    // Runs on the background thread
+    private void evaluate(String filter, DemoCategorizedListModel.SearchMode searchMode, Snapshot snapshot, final int searchGeneration) {
+        final Result result;
+        if (filter == null) {
+            result = new Result(null, searchMode, snapshot, null, null);
+        } else if (searchMode == DemoCategorizedListModel.SearchMode.FUZZY) {
+            FuzzyMatcher matcher = new FuzzyMatcher(filter);
+            BestMatches<DemoItem> bestMatches = new BestMatches<>(MAX_RANKED_RESULTS);
+            for (int i = 0; i < snapshot.names.length; i++) {
+                if (i % CANCELLATION_CHECK_INTERVAL == 0 && generation.get() != searchGeneration) {
+                    return;
+                }
+                int cost = matcher.cost(snapshot.names[i]);
+                if (cost != FuzzyMatcher.NO_MATCH) {
+                    bestMatches.offer(snapshot.items[i], cost);
+                }
+            }
+            result = new Result(filter, searchMode, snapshot, null, bestMatches.toSortedArray(new DemoItem[0]));
+        } else {
+            Result previous = lastResult;
+            int[] candidates = null;
+            if (previous != null && previous.snapshot == snapshot && previous.searchMode == searchMode
+                    && previous.filter != null && filter.contains(previous.filter)) {
+                candidates = previous.matches;
+            }
+            int candidateCount = candidates != null ? candidates.length : snapshot.names.length;
+
+            int[] matches = new int[candidateCount];
+            int matchCount = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                if (i % CANCELLATION_CHECK_INTERVAL == 0 && generation.get() != searchGeneration) {
+                    return;
+                }
+                int index = candidates != null ? candidates[i] : i;
+                if (snapshot.names[index].contains(filter)) {
+                    matches[matchCount++] = index;
+                }
+            }
+            result = new Result(filter, searchMode, snapshot, Arrays.copyOf(matches, matchCount), null);
+        }
+        lastResult = result;
+
+        if (generation.get() != searchGeneration) {
+            return;
+        }
+        final List<DemoItem> matchingItems = result.getMatchingItems();
+        mainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(result, matchingItems, searchGeneration);
+            }
+        });
+    }
+
+    private void apply(Result result, List<DemoItem> matchingItems, int searchGeneration) {
+        if (generation.get() != searchGeneration) {
+            return;
+        }
+        if (result.snapshot.modificationCount != model.getModificationCount() || result.searchMode != model.getSearchMode()) {
+            search(result.filter, 0);
+            return;
+        }
+        if (result.searchMode == DemoCategorizedListModel.SearchMode.FUZZY) {
+            model.applyRanking(result.filter, matchingItems);
+        } else {
+            model.applyFilter(result.filter, matchingItems != null ? new HashSet<>(matchingItems) : null);
+        }
+    }
+
+    private static class Snapshot {
+        private final int modificationCount;
+        private final DemoItem[] items;
+        private final String[] names;
+
+        private Snapshot(int modificationCount, List<DemoItem> items) {
+            this.modificationCount = modificationCount;
+            this.items = items.toArray(new DemoItem[items.size()]);
+            this.names = new String[this.items.length];
+            for (int i = 0; i < this.items.length; i++) {
+                names[i] = this.items[i].getName();
+            }
+        }
+    }
+
+    private static class Result {
+        private final String filter;
+        private final DemoCategorizedListModel.SearchMode searchMode;
+        private final Snapshot snapshot;
+        private final int[] matches;
+        private final DemoItem[] ranked;
+
+        private Result(String filter, DemoCategorizedListModel.SearchMode searchMode, Snapshot snapshot, int[] matches, DemoItem[] ranked) {
+            this.filter = filter;
+            this.searchMode = searchMode;
+            this.snapshot = snapshot;
+            this.matches = matches;
+            this.ranked = ranked;
+        }
+
+        private List<DemoItem> getMatchingItems() {
+            if (ranked != null) {
+                return Arrays.asList(ranked);
+            } else if (matches == null) {
+                return null;
+            }
+            List<DemoItem> result = new ArrayList<>(matches.length);
+            for (int index : matches) {
+                result.add(snapshot.items[index]);
+            }
+            return result;
+        }
+    }
+}
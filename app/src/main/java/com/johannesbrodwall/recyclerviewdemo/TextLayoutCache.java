@@ -0,0 +1,147 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Least recently used cache of text laid out for a given width, so that binding a row doesn't have
+ * to measure its text. Texts which are about to be shown can be laid out ahead of time on a
+ * background thread. Only the most recently requested texts are queued for the background thread,
+ * so that on a fast fling, texts which have already scrolled past are skipped.
+ *
+ * The measurer must be safe to call from the background thread and the caller's thread at the same time.
+ */
+public class TextLayoutCache<L> {
+
+    public interface TextMeasurer<L> {
+        L measure(String text, int width);
+    }
+
+    private static final int MAX_QUEUED_PREFETCHES = 32;
+
+    private final TextMeasurer<L> measurer;
+    private final Executor backgroundExecutor;
+    private final LinkedHashMap<Key, L> layouts = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private int hitCount, missCount, prefetchCount;
+
+    public TextLayoutCache(TextMeasurer<L> measurer, int maxEntries) {
+        this(measurer, maxEntries, new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new ThreadPoolExecutor.DiscardOldestPolicy()));
+    }
+
+    TextLayoutCache(TextMeasurer<L> measurer, int maxEntries, Executor backgroundExecutor) {
+        this.measurer = measurer;
+        this.maxEntries = maxEntries;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    /**
+     * @return the cached layout of the text, or a layout measured on the calling thread if it isn't cached yet
+     */
+    public L get(String text, int width) {
+        Key key = new Key(text, width);
+        synchronized (this) {
+            L layout = layouts.get(key);
+            if (layout != null) {
+                hitCount++;
+                return layout;
+            }
+            missCount++;
+        }
+        L layout = measurer.measure(text, width);
+        put(key, layout);
+        return layout;
+    }
+
+    /**
+     * Lays out the text on the background thread, unless it is already cached
+     */
+    public void prefetch(final String text, final int width) {
+        final Key key = new Key(text, width);
+        if (contains(key)) {
+            return;
+        }
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!contains(key)) {
+                    put(key, measurer.measure(text, width));
+                    synchronized (TextLayoutCache.this) {
+                        prefetchCount++;
+                    }
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        if (backgroundExecutor instanceof ExecutorService) {
+            ((ExecutorService) backgroundExecutor).shutdownNow();
+        }
+    }
+
+    private synchronized boolean contains(Key key) {
+        return layouts.containsKey(key);
+    }
+
+    private synchronized void put(Key key, L layout) {
+        layouts.put(key, layout);
+        Iterator<Key> iterator = layouts.keySet().iterator();
+        while (layouts.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return layouts.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{entries=" + layouts.size()
+                + ",hits=" + hitCount + ",misses=" + missCount + ",prefetches=" + prefetchCount + "}";
+    }
+
+    private static class Key {
+        private final String text;
+        private final int width;
+
+        private Key(String text, int width) {
+            this.text = text;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + width;
+        }
+    }
+}
@@ -3,8 +3,11 @@ package com.johannesbrodwall.recyclerviewdemo;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.List;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.Mockito.reset;
@@ -133,6 +136,24 @@ public class DemoCategorizedListModelTest {
         verify(mockChangeListener).notifyItemRemoved(3);
     }
 
+    @Test
+    public void shouldIgnoreRemovedItems() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.remove(model.indexOf(item2_1));
+        model.setItemChangeListener(mockChangeListener);
+        int modificationCount = model.getModificationCount();
+
+        item2_1.setName("Renamed");
+        model.update(item2_1);
+        model.setSelected(item2_1, true);
+        assertThat(model.isSelected(item2_1)).isFalse();
+        assertThat(model.getModificationCount()).isEqualTo(modificationCount);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1, category2, item2_2);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
     @Test
     public void shouldNotifyOnRemovedCategory() {
         DemoCategorizedListModel model = new DemoCategorizedListModel(
@@ -221,7 +242,7 @@ public class DemoCategorizedListModelTest {
         item2_2.setName("Nothing like this");
         model.update(item2_2);
         assertThat(model.getDisplayedRows()).containsExactly(item2_2);
-        verify(mockChangeListener).notifyDataSetChanged();
+        verify(mockChangeListener).notifyItemRangeInserted(0, 1);
 
         item2_2.setName("Still Nothing like this");
         model.update(item2_2);
@@ -248,4 +269,475 @@ public class DemoCategorizedListModelTest {
         assertThat(model.getDisplayedRows()).containsExactly(category2, item2_2);
         verify(mockChangeListener).notifyItemRemoved(1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDisplayNestedCategories() {
+        DemoCategory subcategory1 = new DemoCategory("Sub 1", category1);
+        DemoCategory subcategory2 = new DemoCategory("Sub 2", category1);
+        DemoItem subitem1 = new DemoItem("Sub item 1", subcategory1);
+        DemoItem subitem2 = new DemoItem("Sub item 2", subcategory2);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(subcategory2, category2, subcategory1, category1),
+                Arrays.asList(item1_1, subitem2, item2_1, subitem1));
+
+        assertThat(model.getDisplayedRows())
+                .containsExactly(category1, subcategory1, subitem1, subcategory2, subitem2, item1_1, category2, item2_1);
+        assertThat(model.indexOf(subitem2)).isEqualTo(4);
+        assertThat(model.indexOf(category2)).isEqualTo(6);
+
+        model.toggleCategories();
+        assertThat(model.getDisplayedRows()).containsExactly(item1_1, item2_1, subitem1, subitem2);
+    }
+
+    @Test
+    public void shouldCollapseNestedCategories() {
+        DemoCategory subcategory = new DemoCategory("Sub", category1);
+        DemoItem subitem = new DemoItem("Sub item", subcategory);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, subcategory, category2),
+                Arrays.asList(item1_1, subitem, item2_1));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.collapseParent(subcategory);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, subcategory, item1_1, category2, item2_1);
+        verify(mockChangeListener).notifyItemChanged(1);
+        verify(mockChangeListener).notifyItemRangeRemoved(2, 1);
+
+        model.collapseParent(category1);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, category2, item2_1);
+        verify(mockChangeListener).notifyItemRangeRemoved(1, 2);
+
+        reset(mockChangeListener);
+        model.expandParent(subcategory);
+        verify(mockChangeListener, Mockito.never()).notifyItemRangeInserted(Mockito.anyInt(), Mockito.anyInt());
+
+        model.expandParent(category1);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, subcategory, subitem, item1_1, category2, item2_1);
+        verify(mockChangeListener).notifyItemRangeInserted(1, 3);
+    }
+
+    @Test
+    public void shouldHideParentCategoriesWithNoItems() {
+        DemoCategory subcategory = new DemoCategory("Sub", category1);
+        DemoItem subitem = new DemoItem("Sub item", subcategory);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, subcategory, category2),
+                Arrays.asList(subitem, item2_1));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.remove(model.indexOf(subitem));
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_1);
+        verify(mockChangeListener).notifyItemRangeRemoved(0, 3);
+    }
+
+    @Test
+    public void shouldRemoveNestedCategory() {
+        DemoCategory subcategory = new DemoCategory("Sub", category1);
+        DemoItem subitem = new DemoItem("Sub item", subcategory);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, subcategory, category2),
+                Arrays.asList(item1_1, subitem, item2_1));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.remove(model.indexOf(subcategory));
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1, category2, item2_1);
+        verify(mockChangeListener).notifyItemRangeRemoved(1, 2);
+
+        model.toggleCategories();
+        assertThat(model.getDisplayedRows()).containsExactly(item1_1, item2_1);
+    }
+
+    @Test
+    public void shouldRestoreSavedState() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.collapseParent(category2);
+        model.setFilter("Item 2");
+
+        DemoCategorizedListModel restored = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        restored.setItemChangeListener(mockChangeListener);
+        restored.restoreState(BitSet.valueOf(model.getCollapsedCategories().toLongArray()),
+                model.getFilter(), model.isGroupedByCategory(), model.getSortOrder());
+
+        assertThat(restored.getDisplayedRows()).containsExactly(category2);
+        assertThat(restored.isExpanded(category1)).isTrue();
+        verify(mockChangeListener).notifyDataSetChanged();
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldSortAndFilterLargeModelsInParallel() {
+        List<DemoItem> items = new ArrayList<>();
+        int category1Count = 0, matchingCount = 0;
+        for (int i = 0; i < ForkJoinSupport.PARALLEL_THRESHOLD * 2; i++) {
+            boolean inCategory1 = i % 3 == 0;
+            DemoItem item = new DemoItem(String.format("Item %06d", (i * 7919) % 100000), inCategory1 ? category1 : category2);
+            items.add(item);
+            if (inCategory1) {
+                category1Count++;
+            }
+            if (item.getName().contains("Item 0000")) {
+                matchingCount++;
+            }
+        }
+        DemoCategorizedListModel model = new DemoCategorizedListModel(Arrays.asList(category1, category2), items);
+
+        assertThat(model.getRowCount()).isEqualTo(items.size() + 2);
+        assertThat(model.getRow(0)).isEqualTo(category1);
+        assertThat(model.getRow(category1Count + 1)).isEqualTo(category2);
+        assertThat(isSorted(model.getDisplayedRows().subList(1, category1Count + 1))).isTrue();
+
+        model.setFilter("Item 0000");
+        assertThat(model.getDisplayedRows()).hasSize(matchingCount + 2);
+        model.toggleCategories();
+        assertThat(model.getDisplayedRows()).hasSize(matchingCount);
+        assertThat(isSorted(model.getDisplayedRows())).isTrue();
+    }
+
+    private static boolean isSorted(List<Object> rows) {
+        for (int i = 1; i < rows.size(); i++) {
+            if (((DemoItem) rows.get(i - 1)).compareTo((DemoItem) rows.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void shouldNotifyChangedRowsWhenApplyingFilter() {
+        DemoItem item2_3 = new DemoItem("Item 2 C", category2);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2, item2_3));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.applyFilter("Item 2 A", Collections.singleton(item2_1));
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_1);
+        verify(mockChangeListener).notifyItemRangeRemoved(0, 2);
+        verify(mockChangeListener).notifyItemRangeRemoved(2, 2);
+        verify(mockChangeListener).notifyItemChanged(0);
+        verifyNoMoreInteractions(mockChangeListener);
+
+        reset(mockChangeListener);
+        model.applyFilter(null, null);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1, category2, item2_1, item2_2, item2_3);
+        verify(mockChangeListener).notifyItemRangeInserted(0, 2);
+        verify(mockChangeListener).notifyItemRangeInserted(4, 2);
+        verify(mockChangeListener).notifyItemChanged(0);
+        verify(mockChangeListener).notifyItemChanged(2);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldSwitchSortOrder() {
+        DemoItem cheapOld = new DemoItem("A cheap old", category1, 10, 1000);
+        DemoItem expensiveNew = new DemoItem("B expensive new", category1, 500, 3000);
+        DemoItem mediumMiddle = new DemoItem("C medium", category1, 100, 2000);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Collections.singletonList(category1),
+                Arrays.asList(mediumMiddle, expensiveNew, cheapOld));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.PRICE);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, cheapOld, mediumMiddle, expensiveNew);
+        verify(mockChangeListener).notifyDataSetChanged();
+
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.RECENTLY_UPDATED);
+        model.toggleCategories();
+        assertThat(model.getDisplayedRows()).containsExactly(expensiveNew, mediumMiddle, cheapOld);
+    }
+
+    @Test
+    public void shouldKeepInactiveSortOrdersUpToDate() {
+        DemoItem cheap = new DemoItem("A cheap", category1, 10, 1000);
+        DemoItem expensive = new DemoItem("B expensive", category1, 500, 3000);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Collections.singletonList(category1),
+                Arrays.asList(cheap, expensive));
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.PRICE);
+        model.setFilter("A");
+        model.setFilter(null);
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.NAME);
+
+        model.setItemChangeListener(mockChangeListener);
+        cheap.setName("C not so cheap");
+        cheap.setPrice(1000);
+        model.update(cheap);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, expensive, cheap);
+        verify(mockChangeListener).notifyItemMoved(1, 2);
+        verify(mockChangeListener).notifyItemChanged(2);
+
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.PRICE);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, expensive, cheap);
+        model.remove(model.indexOf(expensive));
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.RECENTLY_UPDATED);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, cheap);
+    }
+
+    @Test
+    public void shouldMaintainCategoryAggregates() {
+        DemoCategory subcategory = new DemoCategory("Sub", category1);
+        DemoItem subitem = new DemoItem("Sub item", subcategory, 100, 0);
+        DemoItem item1 = new DemoItem("Item 1", category1, 20, 0);
+        DemoItem item2 = new DemoItem("Item 2", category2, 3, 0);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, subcategory, category2),
+                Arrays.asList(subitem, item1, item2));
+        assertThat(model.getItemCount(category1)).isEqualTo(2);
+        assertThat(model.getTotalPrice(category1)).isEqualTo(120);
+
+        model.setFilter("Item");
+        assertThat(model.getVisibleItemCount(category1)).isEqualTo(1);
+        assertThat(model.getVisiblePrice(category1)).isEqualTo(20);
+        assertThat(model.getVisibleItemCount(subcategory)).isEqualTo(0);
+
+        model.setItemChangeListener(mockChangeListener);
+        subitem.setPrice(200);
+        subitem.setName("Sub Item");
+        model.update(subitem);
+        assertThat(model.getTotalPrice(category1)).isEqualTo(220);
+        assertThat(model.getVisiblePrice(category1)).isEqualTo(220);
+        assertThat(model.getVisibleItemCount(category1)).isEqualTo(2);
+        verify(mockChangeListener).notifyItemRangeInserted(1, 2);
+        reset(mockChangeListener);
+
+        model.remove(model.indexOf(item1));
+        assertThat(model.getItemCount(category1)).isEqualTo(1);
+        assertThat(model.getVisiblePrice(category1)).isEqualTo(200);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, subcategory, subitem, category2, item2);
+        verify(mockChangeListener).notifyItemRemoved(3);
+        verify(mockChangeListener).notifyItemChanged(0);
+    }
+
+    @Test
+    public void shouldRankFuzzyMatches() {
+        DemoItem apple = new DemoItem("Apple", category1);
+        DemoItem pineapple = new DemoItem("Pineapple", category1);
+        DemoItem applePie = new DemoItem("Aple pie", category2);
+        DemoItem banana = new DemoItem("Banana", category2);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(banana, applePie, pineapple, apple));
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.FUZZY);
+        model.toggleCategories(false);
+
+        model.setFilter("apple");
+        assertThat(model.getDisplayedRows()).containsExactly(apple, pineapple, applePie);
+        assertThat(model.indexOf(applePie)).isEqualTo(2);
+        assertThat(model.indexOf(banana)).isEqualTo(-1);
+
+        model.toggleCategories(true);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, apple, pineapple, category2, applePie);
+        assertThat(model.getVisibleItemCount(category2)).isEqualTo(1);
+
+        model.toggleCategories(false);
+        model.setItemChangeListener(mockChangeListener);
+        model.remove(1);
+        assertThat(model.getDisplayedRows()).containsExactly(apple, applePie);
+        verify(mockChangeListener).notifyItemRemoved(1);
+
+        banana.setName("Apple banana");
+        model.update(banana);
+        assertThat(model.getDisplayedRows()).containsExactly(apple, banana, applePie);
+
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.SUBSTRING);
+        assertThat(model.getDisplayedRows()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepOnlyBestFuzzyMatches() {
+        List<DemoItem> items = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            items.add(new DemoItem("Item " + i, i % 2 == 0 ? category1 : category2));
+        }
+        DemoItem typo = new DemoItem("Itme", category1);
+        items.add(typo);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(Arrays.asList(category1, category2), items);
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.FUZZY);
+        model.toggleCategories(false);
+
+        model.setFilter("itme");
+        assertThat(model.getRow(0)).isEqualTo(typo);
+        model.setFilter("item");
+        assertThat(model.getRowCount()).isEqualTo(100);
+        assertThat(model.getDisplayedRows()).doesNotContain(typo);
+        model.toggleCategories(true);
+        assertThat(model.getVisibleItemCount(category1) + model.getVisibleItemCount(category2)).isEqualTo(100);
+
+        model.toggleCategories(false);
+        DemoItem last = (DemoItem) model.getRow(99);
+        typo.setName("Item");
+        model.update(typo);
+        assertThat(model.getRowCount()).isEqualTo(100);
+        assertThat(model.getRow(0)).isEqualTo(typo);
+        assertThat(model.getDisplayedRows()).doesNotContain(last);
+
+        typo.setName("Banana");
+        model.update(typo);
+        assertThat(model.getRowCount()).isEqualTo(100);
+        assertThat(model.getDisplayedRows()).contains(last).doesNotContain(typo);
+    }
+
+    @Test
+    public void shouldBreakRankingTiesInSortOrder() {
+        DemoItem expensiveApple = new DemoItem("Apple 1", category1, 500, 0);
+        DemoItem cheapApple = new DemoItem("Apple 2", category1, 100, 0);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1), Arrays.asList(cheapApple, expensiveApple));
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.FUZZY);
+        model.toggleCategories(false);
+
+        model.setFilter("apple");
+        assertThat(model.getDisplayedRows()).containsExactly(expensiveApple, cheapApple);
+        model.setSortOrder(DemoCategorizedListModel.SortOrder.PRICE);
+        assertThat(model.getDisplayedRows()).containsExactly(cheapApple, expensiveApple);
+    }
+
+    @Test
+    public void shouldNotifyRankChangesOfUpdatedItems() {
+        DemoItem apple = new DemoItem("Apple", category1);
+        DemoItem pineapple = new DemoItem("Pineapple", category1);
+        DemoItem banana = new DemoItem("Banana", category2);
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2), Arrays.asList(apple, pineapple, banana));
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.FUZZY);
+        model.toggleCategories(false);
+        model.setFilter("apple");
+        model.setItemChangeListener(mockChangeListener);
+
+        banana.setName("Apple banana");
+        model.update(banana);
+        assertThat(model.getDisplayedRows()).containsExactly(apple, banana, pineapple);
+        verify(mockChangeListener).notifyItemRangeInserted(1, 1);
+
+        apple.setName("Zapple");
+        model.update(apple);
+        assertThat(model.getDisplayedRows()).containsExactly(banana, apple, pineapple);
+        verify(mockChangeListener).notifyItemMoved(0, 1);
+        verify(mockChangeListener).notifyItemChanged(1);
+
+        pineapple.setName("Banana");
+        model.update(pineapple);
+        assertThat(model.getDisplayedRows()).containsExactly(banana, apple);
+        verify(mockChangeListener).notifyItemRemoved(2);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldNotifyChangesWhenReplacingAllData() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.setItemChangeListener(mockChangeListener);
+
+        DemoItem unchangedItem = new DemoItem(item1_1.getId(), "Item 1.1", category1.getId(), 0, 0);
+        DemoItem renamedItem = new DemoItem(item2_1.getId(), "Item 2 C", category2.getId(), 0, 0);
+        DemoItem newItem = new DemoItem("Item 1.2", category1);
+        model.replaceAll(Arrays.asList(category1, category2), Arrays.asList(unchangedItem, renamedItem, newItem));
+
+        assertThat(model.getDisplayedRows()).containsExactly(category1, unchangedItem, newItem, category2, renamedItem);
+        verify(mockChangeListener).notifyItemRemoved(4);
+        verify(mockChangeListener).notifyItemRangeInserted(2, 1);
+        verify(mockChangeListener, Mockito.times(2)).notifyItemChanged(3);
+        verify(mockChangeListener).notifyItemChanged(0);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldKeepStateWhenReplacingAllData() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.collapseParent(category2);
+        model.setFilter("Item 2");
+
+        DemoCategory renamedCategory = new DemoCategory(category2.getId(), "Category 0", null);
+        DemoCategory newCategory = new DemoCategory("Category 3");
+        DemoItem newItem = new DemoItem("Item 2 C", newCategory);
+        DemoItem movedItem = new DemoItem(item1_1.getId(), "Item 2 D", newCategory.getId(), 0, 0);
+        model.replaceAll(Arrays.asList(category1, renamedCategory, newCategory), Arrays.asList(item2_1, newItem, movedItem));
+
+        assertThat(model.getFilter()).isEqualTo("Item 2");
+        assertThat(model.isExpanded(renamedCategory)).isFalse();
+        assertThat(model.getDisplayedRows()).containsExactly(renamedCategory, newCategory, newItem, movedItem);
+        assertThat(model.getItemCount(category1)).isEqualTo(0);
+        assertThat(model.getCollapsedCategories().get(1)).isTrue();
+    }
+
+    @Test
+    public void shouldSelectAllItemsInCategory() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.selectAll(category2);
+        assertThat(model.getSelectedItems()).containsOnly(item2_1, item2_2);
+        assertThat(model.isSelected(item1_1)).isFalse();
+        verify(mockChangeListener).notifyItemRangeChanged(3, 2);
+
+        model.clearSelection();
+        assertThat(model.getSelectedCount()).isEqualTo(0);
+        verify(mockChangeListener).notifyItemRangeChanged(0, 5);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldIgnoreSelectedRangeOutsideOfDisplayedRows() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.setItemChangeListener(mockChangeListener);
+
+        model.selectRange(4, -1);
+        assertThat(model.getSelectedCount()).isEqualTo(3);
+        verify(mockChangeListener).notifyItemRangeChanged(0, 5);
+
+        model.clearSelection();
+        reset(mockChangeListener);
+        model.selectRange(3, 10);
+        assertThat(model.getSelectedItems()).containsOnly(item2_1, item2_2);
+        verify(mockChangeListener).notifyItemRangeChanged(3, 2);
+
+        model.selectRange(5, 10);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldRemoveSelectedItemsAsOneRange() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.selectRange(3, 4);
+        model.setItemChangeListener(mockChangeListener);
+
+        model.removeSelected();
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1);
+        assertThat(model.getSelectedCount()).isEqualTo(0);
+        verify(mockChangeListener).notifyItemRangeRemoved(2, 3);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+
+    @Test
+    public void shouldMoveSelectedItems() {
+        DemoCategorizedListModel model = new DemoCategorizedListModel(
+                Arrays.asList(category1, category2),
+                Arrays.asList(item1_1, item2_1, item2_2));
+        model.setSelected(item2_1, true);
+        model.setItemChangeListener(mockChangeListener);
+
+        model.moveSelected(category1);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1, item2_1, category2, item2_2);
+        assertThat(item2_1.getCategoryId()).isEqualTo(category1.getId());
+        assertThat(model.isSelected(item2_1)).isTrue();
+        assertThat(model.getItemCount(category1)).isEqualTo(2);
+        verify(mockChangeListener).notifyItemRemoved(3);
+        verify(mockChangeListener).notifyItemRangeInserted(2, 1);
+        verify(mockChangeListener).notifyItemChanged(3);
+        verify(mockChangeListener).notifyItemChanged(0);
+        verifyNoMoreInteractions(mockChangeListener);
+    }
+}
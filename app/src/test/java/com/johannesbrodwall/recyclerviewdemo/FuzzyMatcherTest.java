@@ -0,0 +1,38 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class FuzzyMatcherTest {
+
+    @Test
+    public void shouldPreferExactAndEarlyMatches() {
+        FuzzyMatcher matcher = new FuzzyMatcher("apple");
+        assertThat(matcher.cost("Apple pie")).isLessThan(matcher.cost("Green apple"));
+        assertThat(matcher.cost("Green apple")).isLessThan(matcher.cost("Green aple"));
+        assertThat(matcher.cost("Banana")).isEqualTo(FuzzyMatcher.NO_MATCH);
+    }
+
+    @Test
+    public void shouldTolerateTyposInLongerQueries() {
+        assertThat(new FuzzyMatcher("itme").cost("Item 12")).isNotEqualTo(FuzzyMatcher.NO_MATCH);
+        assertThat(new FuzzyMatcher("itxm").cost("Item 12")).isNotEqualTo(FuzzyMatcher.NO_MATCH);
+        assertThat(new FuzzyMatcher("ixxm").cost("Item 12")).isEqualTo(FuzzyMatcher.NO_MATCH);
+        assertThat(new FuzzyMatcher("itm").cost("Item 12")).isEqualTo(FuzzyMatcher.NO_MATCH);
+        assertThat(new FuzzyMatcher("").cost("Item 12")).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepBestMatchesInOrder() {
+        BestMatches<String> bestMatches = new BestMatches<>(3);
+        bestMatches.offer("d", 4);
+        bestMatches.offer("a", 1);
+        bestMatches.offer("e", 5);
+        bestMatches.offer("b", 2);
+        bestMatches.offer("c", 2);
+        bestMatches.offer("f", 9);
+        assertThat(bestMatches.toSortedArray(new String[0])).containsExactly("a", "b", "c");
+        assertThat(bestMatches.size()).isEqualTo(0);
+    }
+}
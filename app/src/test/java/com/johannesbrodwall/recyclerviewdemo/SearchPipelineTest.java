@@ -0,0 +1,232 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class SearchPipelineTest {
+
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    private final DemoCategory category1 = new DemoCategory("Category 1");
+    private final DemoCategory category2 = new DemoCategory("Category 2");
+    private final DemoItem item1_1 = new DemoItem("Item 1.1", category1);
+    private final DemoItem item2_1 = new DemoItem("Item 2 A", category2);
+    private final DemoItem item2_2 = new DemoItem("Item 2 B", category2);
+
+    private final DemoCategorizedListModel model = new DemoCategorizedListModel(
+            Arrays.asList(category1, category2),
+            Arrays.asList(item1_1, item2_1, item2_2));
+
+    private DemoCategorizedListModel.ItemChangeListener mockChangeListener =
+            Mockito.mock(DemoCategorizedListModel.ItemChangeListener.class);
+
+    private final RecordingExecutor mainThreadExecutor = new RecordingExecutor();
+
+    private final ManualScheduler backgroundExecutor = new ManualScheduler();
+
+    private final SearchPipeline pipeline = new SearchPipeline(model, mainThreadExecutor, DEBOUNCE_MILLIS, backgroundExecutor);
+
+    @After
+    public void shutdownPipeline() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void shouldOnlyApplyLatestQuery() {
+        model.setItemChangeListener(mockChangeListener);
+
+        pipeline.setQuery("I");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS - 1);
+        pipeline.setQuery("It");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS - 1);
+        pipeline.setQuery("Item 2");
+        pipeline.setQuery("Item 2 B");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS - 1);
+        assertThat(mainThreadExecutor.executionCount).isEqualTo(0);
+
+        backgroundExecutor.advance(1);
+        assertThat(mainThreadExecutor.executionCount).isEqualTo(1);
+        assertThat(model.getFilter()).isEqualTo("Item 2 B");
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_2);
+        verify(mockChangeListener, never()).notifyDataSetChanged();
+    }
+
+    @Test
+    public void shouldRefinePreviousQuery() {
+        pipeline.setQuery("Item 2");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_1, item2_2);
+
+        pipeline.setQuery("Item 2 A");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_1);
+
+        pipeline.setQuery("");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1, category2, item2_1, item2_2);
+    }
+
+    @Test
+    public void shouldReevaluateWhenModelChangedDuringSearch() {
+        pipeline.setQuery("Item 2");
+        item2_1.setName("Renamed");
+        model.update(item2_1);
+
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(mainThreadExecutor.executionCount).isEqualTo(2);
+        assertThat(model.getDisplayedRows()).containsExactly(category2, item2_2);
+    }
+
+    @Test
+    public void shouldApplyFuzzyRanking() {
+        model.setSearchMode(DemoCategorizedListModel.SearchMode.FUZZY);
+        model.toggleCategories(false);
+
+        pipeline.setQuery("Itme 2 B");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(model.getDisplayedRows()).containsExactly(item2_2, item2_1);
+
+        model.toggleCategories(true);
+        pipeline.setQuery("Itme 1");
+        backgroundExecutor.advance(DEBOUNCE_MILLIS);
+        assertThat(model.getDisplayedRows()).containsExactly(category1, item1_1);
+    }
+
+    private static class RecordingExecutor implements Executor {
+        private int executionCount;
+
+        @Override
+        public void execute(Runnable command) {
+            executionCount++;
+            command.run();
+        }
+    }
+
+    /**
+     * Runs the scheduled tasks on the test thread when the test advances the time, so that
+     * debouncing doesn't depend on the wall clock
+     */
+    private static class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+        private final List<ScheduledTask> tasks = new ArrayList<>();
+        private long currentMillis;
+        private boolean shutdown;
+
+        /**
+         * Runs the tasks which are due by the new time, including tasks they schedule without delay
+         */
+        private void advance(long millis) {
+            currentMillis += millis;
+            while (true) {
+                ScheduledTask next = null;
+                for (ScheduledTask task : tasks) {
+                    if (task.dueMillis <= currentMillis && (next == null || task.dueMillis < next.dueMillis)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                tasks.remove(next);
+                next.run();
+                try {
+                    if (!next.isCancelled()) {
+                        next.get();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledTask task = new ScheduledTask(command, currentMillis + unit.toMillis(delay));
+            tasks.add(task);
+            return task;
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            tasks.clear();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+
+        private class ScheduledTask extends FutureTask<Void> implements ScheduledFuture<Void> {
+            private final long dueMillis;
+
+            private ScheduledTask(Runnable command, long dueMillis) {
+                super(command, null);
+                this.dueMillis = dueMillis;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(dueMillis - currentMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+}
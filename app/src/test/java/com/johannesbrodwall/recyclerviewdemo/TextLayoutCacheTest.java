@@ -0,0 +1,74 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class TextLayoutCacheTest {
+
+    private final List<String> measuredTexts = new ArrayList<>();
+
+    private final TextLayoutCache.TextMeasurer<String> measurer = new TextLayoutCache.TextMeasurer<String>() {
+        @Override
+        public String measure(String text, int width) {
+            measuredTexts.add(text + "@" + width);
+            return text + "@" + width;
+        }
+    };
+
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+
+    private final Executor queuingExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queuedTasks.add(command);
+        }
+    };
+
+    @Test
+    public void shouldMeasureEachTextAndWidthOnce() {
+        TextLayoutCache<String> cache = new TextLayoutCache<>(measurer, 10, queuingExecutor);
+
+        assertThat(cache.get("Item 1", 100)).isEqualTo("Item 1@100");
+        assertThat(cache.get("Item 1", 100)).isEqualTo("Item 1@100");
+        assertThat(cache.get("Item 1", 200)).isEqualTo("Item 1@200");
+        assertThat(measuredTexts).containsExactly("Item 1@100", "Item 1@200");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldPrefetchInBackground() {
+        TextLayoutCache<String> cache = new TextLayoutCache<>(measurer, 10, queuingExecutor);
+
+        cache.prefetch("Item 1", 100);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(queuedTasks).hasSize(1);
+        queuedTasks.remove(0).run();
+        assertThat(cache.getPrefetchCount()).isEqualTo(1);
+
+        cache.prefetch("Item 1", 100);
+        assertThat(queuedTasks).isEmpty();
+        assertThat(cache.get("Item 1", 100)).isEqualTo("Item 1@100");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(measuredTexts).containsExactly("Item 1@100");
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedLayouts() {
+        TextLayoutCache<String> cache = new TextLayoutCache<>(measurer, 2, queuingExecutor);
+
+        cache.get("Item 1", 100);
+        cache.get("Item 2", 100);
+        cache.get("Item 1", 100);
+        cache.get("Item 3", 100);
+        assertThat(cache.size()).isEqualTo(2);
+
+        cache.get("Item 2", 100);
+        assertThat(measuredTexts).containsExactly("Item 1@100", "Item 2@100", "Item 3@100", "Item 2@100");
+    }
+}
@@ -0,0 +1,392 @@
+package com.johannesbrodwall.recyclerviewdemo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+/**
+ * Drives long random sequences of operations against the model, and replays every notification
+ * onto a shadow list the way RecyclerView would: a row is only rebound on the next layout after
+ * it's inserted or reported as changed. After each operation, the shadow must look exactly like
+ * the rows the model displays, which catches wrong ranges as well as missing change notifications.
+ * The time of each operation is recorded, but not asserted on, since timings on shared build
+ * machines are too noisy. Run with -D{0}=true to print their percentiles.
+ */
+public class WorkloadSimulationTest {
+
+    private static final String[] WORDS = { "apple", "banana", "cherry", "grape", "lemon", "melon", "orange", "plum" };
+    private static final String[] FILTERS = { "a", "an", "apple", "e 1", "lemon 2", "rr", "zz" };
+    private static final String PRINT_LATENCIES_PROPERTY = "printLatencies";
+
+    private final Random random = new Random(4711);
+    private final List<DemoCategory> categories = new ArrayList<>();
+    private final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+
+    private DemoCategorizedListModel model;
+    private ShadowRecyclerView shadow;
+
+    @Test
+    public void shouldKeepNotificationsConsistentWithDisplayedRows() {
+        for (int round = 0; round < 20; round++) {
+            createModel(25, 400);
+            for (int step = 0; step < 300; step++) {
+                String operation = performRandomOperation();
+                List<String> expected = shadow.render(model.getDisplayedRows());
+                shadow.layout();
+                assertThat(shadow.rows)
+                        .as("round " + round + " step " + step + " after " + operation)
+                        .isEqualTo(expected);
+            }
+        }
+        if (Boolean.getBoolean(PRINT_LATENCIES_PROPERTY)) {
+            printLatencies();
+        }
+    }
+
+    private void createModel(int categoryCount, int itemCount) {
+        categories.clear();
+        List<DemoItem> items = new ArrayList<>();
+        for (int i = 0; i < categoryCount; i++) {
+            DemoCategory parent = i > 0 && random.nextBoolean() ? categories.get(random.nextInt(i)) : null;
+            categories.add(new DemoCategory("Category " + random.nextInt(categoryCount), parent));
+        }
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new DemoItem(randomName(), categories.get(random.nextInt(categoryCount)),
+                    random.nextInt(100), random.nextInt(1000)));
+        }
+        model = new DemoCategorizedListModel(categories, items);
+        shadow = new ShadowRecyclerView();
+        shadow.rows.addAll(shadow.render(model.getDisplayedRows()));
+        model.setItemChangeListener(shadow);
+    }
+
+    private String performRandomOperation() {
+        int choice = random.nextInt(100);
+        long start = System.nanoTime();
+        String operation;
+        if (choice < 3) {
+            operation = "setFilter";
+            model.setFilter(randomFilter());
+        } else if (choice < 6) {
+            String filter = randomFilter();
+            if (model.getSearchMode() == DemoCategorizedListModel.SearchMode.FUZZY) {
+                List<DemoItem> rankedItems = filter != null ? rank(filter) : null;
+                operation = "applyRanking";
+                start = System.nanoTime();
+                model.applyRanking(filter, rankedItems);
+            } else {
+                Set<DemoItem> matchingItems = filter != null ? match(filter) : null;
+                operation = "applyFilter";
+                start = System.nanoTime();
+                model.applyFilter(filter, matchingItems);
+            }
+        } else if (choice < 8) {
+            operation = "setSortOrder";
+            DemoCategorizedListModel.SortOrder[] sortOrders = DemoCategorizedListModel.SortOrder.values();
+            model.setSortOrder(sortOrders[random.nextInt(sortOrders.length)]);
+        } else if (choice < 10) {
+            operation = "setSearchMode";
+            DemoCategorizedListModel.SearchMode[] searchModes = DemoCategorizedListModel.SearchMode.values();
+            model.setSearchMode(searchModes[random.nextInt(searchModes.length)]);
+        } else if (choice < 11) {
+            List<DemoCategory> newCategories = randomCategoriesToReplace();
+            List<DemoItem> newItems = randomItemsToReplace(newCategories);
+            categories.clear();
+            categories.addAll(newCategories);
+            operation = "replaceAll";
+            start = System.nanoTime();
+            model.replaceAll(newCategories, newItems);
+        } else if (choice < 13) {
+            operation = "toggleCategories";
+            model.toggleCategories();
+        } else if (choice < 40) {
+            DemoCategory category = randomCategory();
+            if (category == null) {
+                return "none";
+            } else if (choice >= 30) {
+                operation = "toggleCollapsed";
+                model.toggleCollapsed(category);
+            } else if (model.isExpanded(category)) {
+                operation = "collapseParent";
+                model.collapseParent(category);
+            } else {
+                operation = "expandParent";
+                model.expandParent(category);
+            }
+        } else if (choice < 55) {
+            if (model.getRowCount() == 0) {
+                return "none";
+            }
+            int position = random.nextInt(model.getRowCount());
+            operation = model.getRow(position) instanceof DemoCategory ? "remove category" : "remove item";
+            start = System.nanoTime();
+            model.remove(position);
+        } else if (choice < 65) {
+            return performRandomSelection();
+        } else {
+            List<DemoItem> remaining = model.getItems();
+            if (remaining.isEmpty()) {
+                return "none";
+            }
+            DemoItem item = remaining.get(random.nextInt(remaining.size()));
+            if (random.nextBoolean()) {
+                item.setName(randomName());
+            }
+            if (random.nextBoolean()) {
+                item.setPrice(random.nextInt(100));
+            }
+            operation = "update";
+            start = System.nanoTime();
+            model.update(item);
+        }
+        record(operation, System.nanoTime() - start);
+        return operation;
+    }
+
+    private String performRandomSelection() {
+        int choice = random.nextInt(10);
+        long start = System.nanoTime();
+        String operation;
+        if (choice < 3 && model.getRowCount() > 0) {
+            operation = "selectRange";
+            int from = random.nextInt(model.getRowCount());
+            model.selectRange(from, Math.min(from + random.nextInt(10), model.getRowCount() - 1));
+        } else if (choice < 5 && model.getRowCount() > 0) {
+            Object row = model.getRow(random.nextInt(model.getRowCount()));
+            if (row instanceof DemoCategory) {
+                operation = "selectAll";
+                model.selectAll((DemoCategory) row);
+            } else {
+                operation = "toggleSelected";
+                model.toggleSelected((DemoItem) row);
+            }
+        } else if (choice < 6) {
+            operation = "clearSelection";
+            model.clearSelection();
+        } else if (choice < 8) {
+            operation = "removeSelected";
+            model.removeSelected();
+        } else {
+            DemoCategory category = randomCategory();
+            if (category == null) {
+                return "none";
+            }
+            operation = "moveSelected";
+            start = System.nanoTime();
+            model.moveSelected(category);
+        }
+        record(operation, System.nanoTime() - start);
+        return operation;
+    }
+
+    private DemoCategory randomCategory() {
+        while (!categories.isEmpty()) {
+            DemoCategory category = categories.get(random.nextInt(categories.size()));
+            try {
+                model.isExpanded(category);
+                return category;
+            } catch (IllegalArgumentException e) {
+                // removed along with a parent
+                categories.remove(category);
+            }
+        }
+        return null;
+    }
+
+    private String randomName() {
+        return WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(30);
+    }
+
+    private String randomFilter() {
+        return random.nextInt(3) == 0 ? null : FILTERS[random.nextInt(FILTERS.length)];
+    }
+
+    private Set<DemoItem> match(String filter) {
+        Set<DemoItem> result = new HashSet<>();
+        for (DemoItem item : model.getItems()) {
+            if (item.getName().contains(filter)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    private List<DemoItem> rank(String filter) {
+        FuzzyMatcher matcher = new FuzzyMatcher(filter);
+        BestMatches<DemoItem> bestMatches = new BestMatches<>(DemoCategorizedListModel.MAX_RANKED_RESULTS);
+        for (DemoItem item : model.getItems()) {
+            int cost = matcher.cost(item.getName());
+            if (cost != FuzzyMatcher.NO_MATCH) {
+                bestMatches.offer(item, cost);
+            }
+        }
+        return Arrays.asList(bestMatches.toSortedArray(new DemoItem[0]));
+    }
+
+    /**
+     * Drops, renames and moves some of the categories, and adds a new one now and then
+     */
+    private List<DemoCategory> randomCategoriesToReplace() {
+        List<DemoCategory> result = new ArrayList<>();
+        Set<UUID> keptIds = new HashSet<>();
+        for (DemoCategory category : categories) {
+            if (random.nextInt(10) == 0) {
+                continue;
+            }
+            UUID parentId = category.getParentId();
+            if ((parentId != null && !keptIds.contains(parentId)) || random.nextInt(10) == 0) {
+                parentId = result.isEmpty() || random.nextBoolean() ? null : result.get(random.nextInt(result.size())).getId();
+            }
+            String name = random.nextInt(8) == 0 ? "Category " + random.nextInt(25) : category.getName();
+            result.add(new DemoCategory(category.getId(), name, parentId));
+            keptIds.add(category.getId());
+        }
+        if (result.isEmpty() || random.nextInt(3) == 0) {
+            result.add(new DemoCategory("Category " + random.nextInt(25)));
+        }
+        return result;
+    }
+
+    /**
+     * Drops, renames, reprices and moves some of the items, and adds a few new ones
+     */
+    private List<DemoItem> randomItemsToReplace(List<DemoCategory> newCategories) {
+        Set<UUID> categoryIds = new HashSet<>();
+        for (DemoCategory category : newCategories) {
+            categoryIds.add(category.getId());
+        }
+        List<DemoItem> result = new ArrayList<>();
+        for (DemoItem item : model.getItems()) {
+            if (random.nextInt(10) == 0) {
+                continue;
+            }
+            UUID categoryId = item.getCategoryId();
+            if (!categoryIds.contains(categoryId) || random.nextInt(10) == 0) {
+                categoryId = newCategories.get(random.nextInt(newCategories.size())).getId();
+            }
+            String name = random.nextInt(8) == 0 ? randomName() : item.getName();
+            int price = random.nextInt(8) == 0 ? random.nextInt(100) : item.getPrice();
+            result.add(new DemoItem(item.getId(), name, categoryId, price, item.getUpdatedAt()));
+        }
+        for (int i = random.nextInt(4); i > 0; i--) {
+            result.add(new DemoItem(randomName(), newCategories.get(random.nextInt(newCategories.size())),
+                    random.nextInt(100), random.nextInt(1000)));
+        }
+        Collections.shuffle(result, random);
+        return result;
+    }
+
+    private void record(String operation, long nanos) {
+        List<Long> samples = latencies.get(operation);
+        if (samples == null) {
+            samples = new ArrayList<>();
+            latencies.put(operation, samples);
+        }
+        samples.add(nanos);
+    }
+
+    private void printLatencies() {
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            Long[] samples = entry.getValue().toArray(new Long[0]);
+            Arrays.sort(samples);
+            System.out.println(String.format(Locale.ROOT, "%-18s n=%5d p50=%7.1fus p90=%7.1fus p99=%7.1fus max=%8.1fus",
+                    entry.getKey(), samples.length,
+                    percentile(samples, 50) / 1000.0, percentile(samples, 90) / 1000.0,
+                    percentile(samples, 99) / 1000.0, samples[samples.length - 1] / 1000.0));
+        }
+    }
+
+    private static long percentile(Long[] sortedSamples, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sortedSamples.length) - 1;
+        return sortedSamples[Math.max(index, 0)];
+    }
+
+    private class ShadowRecyclerView implements DemoCategorizedListModel.ItemChangeListener {
+        private final List<String> rows = new ArrayList<>();
+
+        private List<String> render(List<Object> displayedRows) {
+            List<String> result = new ArrayList<>();
+            for (Object row : displayedRows) {
+                result.add(bind(row));
+            }
+            return result;
+        }
+
+        private String bind(Object row) {
+            if (row instanceof DemoCategory) {
+                DemoCategory category = (DemoCategory) row;
+                return model.getDepth(category) + " " + category.getName()
+                        + " " + model.getVisibleItemCount(category) + "/" + model.getItemCount(category)
+                        + " " + model.getVisiblePrice(category) + " kr"
+                        + (model.isExpanded(category) ? " -" : " +");
+            }
+            DemoItem item = (DemoItem) row;
+            return item.getName() + " " + item.getPrice() + " kr" + (model.isSelected(item) ? " selected" : "");
+        }
+
+        private void layout() {
+            for (int position = 0; position < Math.min(rows.size(), model.getRowCount()); position++) {
+                if (rows.get(position) == null) {
+                    rows.set(position, bind(model.getRow(position)));
+                }
+            }
+        }
+
+        @Override
+        public void notifyItemChanged(int position) {
+            assertThat(position).as("changed position").isBetween(0, rows.size() - 1);
+            rows.set(position, null);
+        }
+
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+            assertThat(positionStart + itemCount).as("changed range end").isBetween(positionStart + 1, rows.size());
+            for (int i = 0; i < itemCount; i++) {
+                rows.set(positionStart + i, null);
+            }
+        }
+
+        @Override
+        public void notifyItemRangeInserted(int offset, int insertedItemCount) {
+            assertThat(offset).as("insert offset").isBetween(0, rows.size());
+            for (int i = 0; i < insertedItemCount; i++) {
+                rows.add(offset, null);
+            }
+        }
+
+        @Override
+        public void notifyItemRangeRemoved(int offset, int removedItemCount) {
+            assertThat(offset + removedItemCount).as("removed range end").isBetween(offset, rows.size());
+            rows.subList(offset, offset + removedItemCount).clear();
+        }
+
+        @Override
+        public void notifyItemRemoved(int position) {
+            notifyItemRangeRemoved(position, 1);
+        }
+
+        @Override
+        public void notifyItemMoved(int fromPosition, int toPosition) {
+            assertThat(fromPosition).as("moved position").isBetween(0, rows.size() - 1);
+            rows.add(toPosition, rows.remove(fromPosition));
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            rows.clear();
+            rows.addAll(render(model.getDisplayedRows()));
+        }
+    }
+}